@@ -34,6 +34,8 @@ public final class R {
         public static final int playpause=0x7f050010;
         public static final int port=0x7f050006;
         public static final int prev=0x7f05000f;
+        public static final int searchQuery=0x7f050018;
+        public static final int searchResults=0x7f050019;
         public static final int seek_position=0x7f050013;
         public static final int seek_total=0x7f050014;
         public static final int seekbar=0x7f050012;
@@ -54,6 +56,7 @@ public final class R {
         public static final int main=0x7f030005;
         public static final int song_browse=0x7f030006;
         public static final int song_row_view=0x7f030007;
+        public static final int song_search=0x7f030008;
     }
     public static final class string {
         public static final int app_name=0x7f040001;
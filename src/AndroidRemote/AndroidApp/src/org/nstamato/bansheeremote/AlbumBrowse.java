@@ -25,16 +25,12 @@ OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
 WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 */
 
-import java.io.File;
 import java.util.ArrayList;
 
 import android.app.Activity;
 import android.content.Intent;
-import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.os.Bundle;
-import android.os.Environment;
 import android.view.View;
 import android.widget.AdapterView;
 import android.widget.ImageView;
@@ -47,12 +43,10 @@ public class AlbumBrowse extends Activity{
 	ArrayList<AlbumListItem> albumList;
     AlbumBaseAdapter albumListAdapter; 
 	//ArrayAdapter<AlbumListItem> albumListAdapter;
-    final String filenameDB = "banshee.db";
-    SQLiteDatabase bansheeDB;
     public ImageView icon;
     public TextView title;
     public String titleText="Albums";
-    public boolean addedNull=false;
+    QueryExecutor.Query albumQuery;
     //public ListView l;
     
     /*private OnItemClickListener clickListener = new OnItemClickListener(){
@@ -105,55 +99,18 @@ public class AlbumBrowse extends Activity{
 		//l.setTextFilterEnabled(true);
 		//l.setFastScrollEnabled(true);
 		//l.setOnItemClickListener(clickListener);
-        File db = null;
 		try{
-			//db = getFileStreamPath(filenameDB);
-			db = Environment.getExternalStorageDirectory();
-			String path = db.getAbsolutePath()+'/'+filenameDB;
-			bansheeDB = SQLiteDatabase.openDatabase(path, null, SQLiteDatabase.NO_LOCALIZED_COLLATORS);
-			String query = "SELECT Title, TitleLowered, ArtistName, AlbumID FROM CoreAlbums";
-			String[] params = null;
-			if(!titleText.equals("Albums")){
-				query+=" WHERE ArtistName=?";
-				params = new String[]{titleText};
-			}
-			query+=" ORDER BY Title";
-			
-			Cursor c = bansheeDB.rawQuery(query,params);
-			//int columnCount = c.getColumnCount();
-			int name = c.getColumnIndex("Title");
-			int lowered = c.getColumnIndex("TitleLowered");
-			int artistColumnIndex = c.getColumnIndex("ArtistName");
-			int albumIdColumnIndex = c.getColumnIndex("AlbumID");
-			//int count = c.getCount();
-			c.moveToFirst();
-			while(c.isAfterLast()==false){
-				AlbumListItem albumItem = new AlbumListItem();
-				String label = c.getString(name);
-				String artist = c.getString(artistColumnIndex);
-				int albumID = c.getInt(albumIdColumnIndex);
-				if(label!=null){
-					albumItem.setAlbumName(label);
-					albumItem.setAlbumId(albumID);
-					albumItem.setArtist("");
-					if(artist!=null)
-						albumItem.setArtist(artist);
-					albumList.add(albumItem);
+			albumQuery = Library.get().albums(titleText.equals("Albums") ? null : titleText,new QueryExecutor.Receiver<AlbumListItem>(){
+				public void onRows(ArrayList<AlbumListItem> rows){
+					albumList.addAll(rows);
+					albumListAdapter.notifyDataSetChanged();
 				}
-				else if(!addedNull){
-					albumItem.setAlbumName(c.getString(lowered));
-					albumItem.setAlbumId(albumID);
-					albumItem.setArtist(("Unknown Artist"));
-					albumList.add(albumItem);
-					addedNull=true;
+				public void onDone(){
 				}
-				c.moveToNext();
-				//artistList.add("hello");
-			}
-			c.close();
-			//artistList.add("hello");
-			//Toast.makeText(this,result,Toast.LENGTH_SHORT).show();
-			//String result = c.getString(name);
+				public void onError(Exception e){
+					Toast.makeText(AlbumBrowse.this,"Something went wrong. Make sure the banshee database file is on your sd-card.",Toast.LENGTH_LONG).show();
+				}
+			});
 		}catch(SQLiteException e){
 			//Toast.makeText(this,e.getMessage(),Toast.LENGTH_SHORT).show();
 			Toast.makeText(this,"Something went wrong. Make sure the banshee database file is on your sd-card.",Toast.LENGTH_LONG).show();
@@ -178,6 +135,12 @@ public class AlbumBrowse extends Activity{
 		
 		
     }
+	protected void onDestroy(){
+		super.onDestroy();
+		if(albumQuery!=null)
+			albumQuery.cancel();
+	}
+	
 	/*public void onListItemClick(ListView l, View v, int position, long id){
 		super.onListItemClick(l, v, position, id);
 		Object o = l.getItemAtPosition(position);
@@ -25,17 +25,13 @@ OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
 WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 */
 
-import java.io.File;
 import java.util.ArrayList;
 
 
 import android.app.ListActivity;
 import android.content.Intent;
-import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.os.Bundle;
-import android.os.Environment;
 import android.view.View;
 import android.widget.ArrayAdapter;
 import android.widget.ImageView;
@@ -46,10 +42,9 @@ import android.widget.Toast;
 public class ArtistBrowse extends ListActivity{
 	ArrayList<String> artistList;
     ArrayAdapter<String> artistListAdapter; 
-    final String filenameDB = "banshee.db";
-    SQLiteDatabase bansheeDB;
     public ImageView icon;
     public TextView title;
+    QueryExecutor.Query artistQuery;
     
     protected void onActivityResult(int requestCode, int resultCode, Intent data){
 		super.onActivityResult(requestCode, resultCode, data);
@@ -74,29 +69,18 @@ public class ArtistBrowse extends ListActivity{
         //this.headerAdapter = new ArrayAdapter<String>(this,R.layout.list_item,header);
         //setListAdapter(headerAdapter);n	
         setListAdapter(artistListAdapter);
-        File db = null;
 		try{
-			//db = getFileStreamPath(filenameDB);
-			db = Environment.getExternalStorageDirectory();
-			String path = db.getAbsolutePath()+'/'+filenameDB;
-			bansheeDB = SQLiteDatabase.openDatabase(path, null, SQLiteDatabase.NO_LOCALIZED_COLLATORS);
-			String query = "SELECT Name FROM CoreArtists ORDER BY Name";
-			Cursor c = bansheeDB.rawQuery(query,null);
-			//int columnCount = c.getColumnCount();
-			int name = c.getColumnIndex("Name");
-			//int count = c.getCount();
-			c.moveToFirst();
-			while(c.isAfterLast()==false){
-				String artist = c.getString(name);
-				if(artist!=null)
-					artistList.add(c.getString(name));
-				c.moveToNext();
-				//artistList.add("hello");
-			}
-			c.close();
-			//artistList.add("hello");
-			//Toast.makeText(this,result,Toast.LENGTH_SHORT).show();
-			//String result = c.getString(name);
+			artistQuery = Library.get().artists(new QueryExecutor.Receiver<String>(){
+				public void onRows(ArrayList<String> rows){
+					artistList.addAll(rows);
+					artistListAdapter.notifyDataSetChanged();
+				}
+				public void onDone(){
+				}
+				public void onError(Exception e){
+					Toast.makeText(ArtistBrowse.this,"Something went wrong. Make sure the banshee database file is on your sd-card.",Toast.LENGTH_LONG).show();
+				}
+			});
 		}catch(SQLiteException e){
 			//Toast.makeText(this,e.getMessage(),Toast.LENGTH_SHORT).show();
 			Toast.makeText(this,"Something went wrong. Make sure the banshee database file is on your sd-card.",Toast.LENGTH_LONG).show();
@@ -110,6 +94,12 @@ public class ArtistBrowse extends ListActivity{
 		l.setFastScrollEnabled(true);
     }
 	
+	protected void onDestroy(){
+		super.onDestroy();
+		if(artistQuery!=null)
+			artistQuery.cancel();
+	}
+	
 	public void onListItemClick(ListView l, View v, int position, long id) {
     	super.onListItemClick(l, v, position, id);
     	String selected = this.artistListAdapter.getItem(position);
@@ -44,6 +44,7 @@ public class BansheeInstance {
 		this.album=album;
 		this.iseekposition=position;
 		this.iseektotal=total;
+		this.isCover=isCover;
 		this.ip=ip;
 		this.port=port;
 	}
@@ -27,8 +27,6 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 
 import java.io.FileInputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.Socket;
 import java.util.ArrayList;
 import android.app.ListActivity;
 import android.content.Context;
@@ -112,31 +110,20 @@ public class BansheeRemote extends ListActivity {
     		startActivityForResult(response,1);
     	}
     	else{
-    		boolean canConnect = false;
     		String server[] = selected.split(":");
-    		String ip = server[0];
-    		int port = Integer.parseInt(server[1]);
-    		String command = "test/";
-    		Socket s;
-			OutputStream os;
-    		try {
-    			s = new Socket(ip,port); 
-    			os = s.getOutputStream();
-    			os.write(command.getBytes(), 0, command.length());
-    			s.close();
-    			os.close();
-    			canConnect = true;
-    		} catch(Exception e) {
-    			canConnect = false;
-    			Toast.makeText(BansheeRemote.this,"Can't connect to Server. Check your settings.",Toast.LENGTH_SHORT).show();
-    		}
-			
-			if(canConnect){
-				Intent response = new Intent(BansheeRemote.this,main.class);
-				response.putExtra("ip",ip);
-				response.putExtra("port", port);		
-				startActivityForResult(response,1);
-			}
+    		final String ip = server[0];
+    		final int port = Integer.parseInt(server[1]);
+    		CommandExecutor.test(RemoteSession.get(ip,port),BansheeRemote.this,new CommandExecutor.Callback<String>(){
+    			public void onResult(String result){
+					Intent response = new Intent(BansheeRemote.this,main.class);
+					response.putExtra("ip",ip);
+					response.putExtra("port", port);		
+					startActivityForResult(response,1);
+    			}
+    			public void onError(Exception e){
+	    			Toast.makeText(BansheeRemote.this,"Can't connect to Server. Check your settings.",Toast.LENGTH_SHORT).show();
+    			}
+    		});
     	}
     	//Toast.makeText(BansheeRemote.this, selected,Toast.LENGTH_SHORT).show();
     }
@@ -0,0 +1,76 @@
+package org.nstamato.bansheeremote;
+
+/*
+BansheeRemote
+
+Copyright (C) 2011 Nikitas Stamatopoulos
+
+Permission is hereby granted, free of charge, to any person obtaining
+a copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+
+/*
+ * Reply buffers shared by every request in the process. Each request takes
+ * a buffer of its own with acquire() and hands it back with release(), so
+ * concurrent requests never write into each other's replies, and once a
+ * few buffers have grown to the usual reply sizes nothing more is
+ * allocated. Buffers that grew past MAX_RETAINED, like the one a cover
+ * was read into, are left to the garbage collector instead of being kept.
+ */
+public class BufferPool {
+	private static final int MAX_POOLED = 4;
+	private static final int MAX_RETAINED = 64 * 1024;
+	private static final ArrayList<Buffer> pool = new ArrayList<Buffer>();
+
+	public static class Buffer extends ByteArrayOutputStream {
+		private Buffer(){
+			super(1024);
+		}
+
+		/* The backing array; only the first size() bytes are the content. */
+		public byte[] array(){
+			return buf;
+		}
+
+		public int capacity(){
+			return buf.length;
+		}
+	}
+
+	public static Buffer acquire(){
+		synchronized(pool){
+			if(!pool.isEmpty())
+				return pool.remove(pool.size() - 1);
+		}
+		return new Buffer();
+	}
+
+	public static void release(Buffer buffer){
+		if(buffer == null || buffer.capacity() > MAX_RETAINED)
+			return;
+		buffer.reset();
+		synchronized(pool){
+			if(pool.size() < MAX_POOLED && !pool.contains(buffer))
+				pool.add(buffer);
+		}
+	}
+}
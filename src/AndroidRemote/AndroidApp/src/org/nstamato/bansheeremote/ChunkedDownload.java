@@ -0,0 +1,184 @@
+package org.nstamato.bansheeremote;
+
+/*
+BansheeRemote
+
+Copyright (C) 2011 Nikitas Stamatopoulos
+
+Permission is hereby granted, free of charge, to any person obtaining
+a copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+
+/*
+ * Downloads the whole banshee.db as numbered chunks. "syncManifest"
+ * makes the server snapshot the database and answers with its
+ * generation, size, chunk size and the CRC32 of every chunk; each
+ * "syncChunk/<generation>,<chunk size>,<index>[,gzip]" then returns one chunk. Verified chunks
+ * are appended to <target>.part and the generation is kept in
+ * <target>.sync, so an interrupted download picks up at the first
+ * missing chunk as long as the server still has the same snapshot. The
+ * manifest request names that generation ("resume=<generation>") so the
+ * server keeps serving it rather than a fresh copy of the library.
+ *
+ * The manifest request also offers "gzip"; when the server accepts it the
+ * manifest names the encoding on its fourth line and every chunk arrives
+ * compressed. Chunks are inflated one at a time, so only a single chunk is
+ * ever held in memory, and the checksums always cover the plain bytes.
+ */
+public class ChunkedDownload {
+	public interface ProgressListener {
+		void onProgress(int chunk, int chunks);
+	}
+
+	public static final int CHUNK_SIZE = 256 * 1024;
+	private static final int CHUNK_ATTEMPTS = 3;
+
+	private final RemoteSession session;
+	private final File target, part, state;
+
+	public ChunkedDownload(RemoteSession session, File target){
+		this.session = session;
+		this.target = target;
+		this.part = new File(target.getPath() + ".part");
+		this.state = new File(target.getPath() + ".sync");
+	}
+
+	public void run(ProgressListener listener) throws IOException{
+		// ask to keep the snapshot a download was interrupted in, even if the library changed since
+		String saved = part.exists() ? readState() : null;
+		String resume = saved == null ? "" : ",resume=" + saved.substring(0, saved.indexOf('\n'));
+		String manifest[] = session.getInfo("syncManifest", CHUNK_SIZE + ",gzip" + resume).split("\n");
+		if(manifest.length < 4)
+			throw new IOException("Malformed sync manifest");
+		String generation = manifest[0];
+		boolean gzip = manifest[3].equals("gzip");
+		long total;
+		int chunkSize;
+		long crcs[] = new long[manifest.length - 4];
+		try{
+			total = Long.parseLong(manifest[1]);
+			chunkSize = Integer.parseInt(manifest[2]);
+			for(int i=0;i<crcs.length;i++)
+				crcs[i] = Long.parseLong(manifest[i+4], 16);
+		}
+		catch(NumberFormatException e){
+			throw new IOException("Malformed sync manifest");
+		}
+		int chunk = 0;
+		String resumeState = generation + "\n" + chunkSize;
+		if(resumeState.equals(readState()) && part.exists())
+			chunk = (int)(part.length() / chunkSize);
+		else{
+			part.delete();
+			writeState(resumeState);
+		}
+
+		RandomAccessFile out = new RandomAccessFile(part, "rw");
+		try{
+			// drop a chunk that was only partly written when we got interrupted
+			out.setLength((long)chunk * chunkSize);
+			CRC32 crc = new CRC32();
+			ByteArrayOutputStream received = new ByteArrayOutputStream();
+			byte[] data = new byte[chunkSize];
+			for(;chunk<crcs.length;chunk++){
+				int length = -1;
+				for(int attempt=0;length<0;attempt++){
+					received.reset();
+					session.request("syncChunk", generation + "," + chunkSize + "," + chunk + (gzip ? ",gzip" : ""), received);
+					length = readChunk(received, gzip, data, crc, crcs[chunk]);
+					if(length < 0 && attempt + 1 >= CHUNK_ATTEMPTS)
+						throw new IOException("Chunk " + chunk + " failed its checksum");
+				}
+				out.seek((long)chunk * chunkSize);
+				out.write(data, 0, length);
+				if(listener != null)
+					listener.onProgress(chunk + 1, crcs.length);
+			}
+			if(out.length() != total)
+				throw new IOException("Downloaded " + out.length() + " of " + total + " bytes");
+		}
+		finally{
+			out.close();
+		}
+
+		target.delete();
+		if(!part.renameTo(target))
+			throw new IOException("Can't move " + part + " to " + target);
+		state.delete();
+	}
+
+	/*
+	 * Inflates one received chunk into data and returns its length, or -1
+	 * if it doesn't match its checksum.
+	 */
+	private static int readChunk(ByteArrayOutputStream received, boolean gzip, byte[] data, CRC32 crc, long expected){
+		int length = 0;
+		try{
+			InputStream in = new ByteArrayInputStream(received.toByteArray());
+			if(gzip)
+				in = new GZIPInputStream(in);
+			int len;
+			while(length < data.length && (len = in.read(data, length, data.length - length)) > 0)
+				length += len;
+		}
+		catch(IOException e){
+			return -1;
+		}
+		crc.reset();
+		crc.update(data, 0, length);
+		return crc.getValue() == expected ? length : -1;
+	}
+
+	private String readState(){
+		try{
+			BufferedReader reader = new BufferedReader(new FileReader(state));
+			try{
+				return reader.readLine() + "\n" + reader.readLine();
+			}
+			finally{
+				reader.close();
+			}
+		}
+		catch(IOException e){
+			return null;
+		}
+	}
+
+	private void writeState(String resumeState) throws IOException{
+		FileWriter writer = new FileWriter(state);
+		try{
+			writer.write(resumeState + "\n");
+		}
+		finally{
+			writer.close();
+		}
+	}
+}
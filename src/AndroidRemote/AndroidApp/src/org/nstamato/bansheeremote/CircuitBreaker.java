@@ -0,0 +1,114 @@
+package org.nstamato.bansheeremote;
+
+/*
+BansheeRemote
+
+Copyright (C) 2011 Nikitas Stamatopoulos
+
+Permission is hereby granted, free of charge, to any person obtaining
+a copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+import java.io.IOException;
+
+/*
+ * Stops a RemoteSession from hammering a server that isn't there. After
+ * THRESHOLD calls in a row have failed the breaker opens: calls fail at
+ * once in check() instead of waiting for their timeouts, and a background
+ * thread runs the probe with growing pauses until it gets through, which
+ * closes the breaker again.
+ */
+public class CircuitBreaker {
+	public interface Probe {
+		void run() throws IOException;
+	}
+
+	public static final int THRESHOLD = 3;
+	public static final int MIN_PROBE = 2000;
+	public static final int MAX_PROBE = 60000;
+
+	private final Probe probe;
+	private int failures = 0;
+	private boolean open = false;
+	// bumped every time the breaker opens, so a prober from an earlier opening gives up
+	private int openings = 0;
+
+	public CircuitBreaker(Probe probe){
+		this.probe = probe;
+	}
+
+	public synchronized void check() throws IOException{
+		if(open)
+			throw new IOException("Server unreachable");
+	}
+
+	public synchronized boolean isOpen(){
+		return open;
+	}
+
+	public synchronized void succeeded(){
+		failures = 0;
+		open = false;
+	}
+
+	public synchronized void failed(){
+		failures++;
+		if(open || failures < THRESHOLD)
+			return;
+		open = true;
+		final int opening = ++openings;
+		Thread prober = new Thread(new Runnable(){
+			public void run(){
+				probe(opening);
+			}
+		}, "CircuitBreaker");
+		prober.setDaemon(true);
+		prober.start();
+	}
+
+	/* Closes the breaker without waiting for a probe, which stops probing. */
+	public void reset(){
+		succeeded();
+	}
+
+	private synchronized boolean isOpen(int opening){
+		return open && openings == opening;
+	}
+
+	private void probe(int opening){
+		long delay = MIN_PROBE;
+		while(isOpen(opening)){
+			try{
+				Thread.sleep(delay);
+			}
+			catch(InterruptedException e){
+				return;
+			}
+			if(!isOpen(opening))
+				return;
+			try{
+				probe.run();
+				succeeded();
+			}
+			catch(IOException e){
+				delay = Math.min(MAX_PROBE, delay * 2);
+			}
+		}
+	}
+}
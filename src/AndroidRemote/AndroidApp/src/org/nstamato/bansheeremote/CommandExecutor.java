@@ -0,0 +1,166 @@
+package org.nstamato.bansheeremote;
+
+/*
+BansheeRemote
+
+Copyright (C) 2011 Nikitas Stamatopoulos
+
+Permission is hereby granted, free of charge, to any person obtaining
+a copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.app.Activity;
+import android.os.Handler;
+import android.os.Looper;
+
+/*
+ * Runs remote calls on a background thread per RemoteSession, so nothing
+ * touches the network from the UI thread and a server that hangs only
+ * holds up the calls to it, not a "test" of another one. Waiting calls run
+ * in order of priority, USER first, then POLL and COVER, and in the order
+ * they were submitted within a priority; a call that already started
+ * isn't interrupted. Results and errors go to the Callback on the UI
+ * thread, unless the activity that asked is finishing by then, and a
+ * background thread can instead wait with await().
+ */
+public class CommandExecutor {
+	public static final int USER = 0, POLL = 1, COVER = 2;
+
+	public interface Call<T> {
+		T run(RemoteSession session) throws Exception;
+	}
+
+	public interface Callback<T> {
+		void onResult(T result);
+		void onError(Exception e);
+	}
+
+	public static class Command<T> extends FutureTask<T> implements Comparable<Command<?>> {
+		private final int priority;
+		private final long sequence = sequences.getAndIncrement();
+		private final Activity owner;
+		private final Callback<T> callback;
+
+		private Command(final RemoteSession session, int priority, final Call<T> call, Activity owner, Callback<T> callback){
+			super(new Callable<T>(){
+				public T call() throws Exception{
+					return call.run(session);
+				}
+			});
+			this.priority = priority;
+			this.owner = owner;
+			this.callback = callback;
+		}
+
+		public int compareTo(Command<?> other){
+			if(priority != other.priority)
+				return priority < other.priority ? -1 : 1;
+			return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+		}
+
+		/* Waits for the result; never call this from the executor itself. */
+		public T await() throws Exception{
+			try{
+				return get();
+			}
+			catch(ExecutionException e){
+				if(e.getCause() instanceof Exception)
+					throw (Exception)e.getCause();
+				throw e;
+			}
+		}
+
+		protected void done(){
+			if(callback == null || isCancelled())
+				return;
+			handler.post(new Runnable(){
+				public void run(){
+					if(isCancelled() || (owner != null && owner.isFinishing()))
+						return;
+					T result;
+					try{
+						result = await();
+					}
+					catch(Exception e){
+						callback.onError(e);
+						return;
+					}
+					callback.onResult(result);
+				}
+			});
+		}
+	}
+
+	private static final AtomicLong sequences = new AtomicLong();
+	private static final HashMap<RemoteSession, ThreadPoolExecutor> lanes = new HashMap<RemoteSession, ThreadPoolExecutor>();
+	private static final Handler handler = new Handler(Looper.getMainLooper());
+
+	/* For calls whose callback isn't tied to an activity, or that are await()ed. */
+	public static <T> Command<T> submit(RemoteSession session, int priority, Call<T> call, Callback<T> callback){
+		return submit(session, priority, call, null, callback);
+	}
+
+	/* The callback is dropped if owner is finishing by the time the call is done. */
+	public static <T> Command<T> submit(RemoteSession session, int priority, Call<T> call, Activity owner, Callback<T> callback){
+		Command<T> command = new Command<T>(session, priority, call, owner, callback);
+		lane(session).execute(command);
+		return command;
+	}
+
+	public static Command<String> sendCommand(RemoteSession session, final String action, final String params, Activity owner, Callback<String> callback){
+		return getInfo(session, action, params, owner, callback);
+	}
+
+	public static Command<String> getInfo(RemoteSession session, final String action, final String params, Activity owner, Callback<String> callback){
+		return submit(session, USER, new Call<String>(){
+			public String run(RemoteSession session) throws Exception{
+				return session.getInfo(action, params);
+			}
+		}, owner, callback);
+	}
+
+	public static Command<String> test(RemoteSession session, Activity owner, Callback<String> callback){
+		return getInfo(session, "test", null, owner, callback);
+	}
+
+	private static synchronized ThreadPoolExecutor lane(final RemoteSession session){
+		ThreadPoolExecutor lane = lanes.get(session);
+		if(lane == null){
+			lane = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>(), new ThreadFactory(){
+				public Thread newThread(Runnable r){
+					Thread thread = new Thread(r, "CommandExecutor " + session.getServer() + ':' + session.getPort());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			lanes.put(session, lane);
+		}
+		return lane;
+	}
+}
@@ -0,0 +1,204 @@
+package org.nstamato.bansheeremote;
+
+/*
+BansheeRemote
+
+Copyright (C) 2011 Nikitas Stamatopoulos
+
+Permission is hereby granted, free of charge, to any person obtaining
+a copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+
+/*
+ * Cover art cache shared by the whole process. Decoded bitmaps are kept in
+ * a memory LRU bounded by their pixel size, and the encoded bytes as they
+ * came from the server are kept in the cache directory, bounded by total
+ * file size. A miss in memory falls back to disk before anyone has to ask
+ * the server again. Covers are keyed by the MD5 the server sends for
+ * them, or by their album for servers that don't.
+ */
+public class CoverCache {
+	private static final long MEMORY_BYTES = 4 * 1024 * 1024;
+	private static final long DISK_BYTES = 10 * 1024 * 1024;
+	private static CoverCache instance;
+
+	private final LinkedHashMap<String, Bitmap> memory = new LinkedHashMap<String, Bitmap>(16, 0.75f, true);
+	private long memoryBytes = 0;
+	private final File dir;
+	private int width = 0, height = 0;
+
+	private CoverCache(File dir){
+		this.dir = dir;
+		dir.mkdirs();
+	}
+
+	public static synchronized CoverCache get(Context context){
+		if(instance == null)
+			instance = new CoverCache(new File(context.getApplicationContext().getCacheDir(), "covers"));
+		return instance;
+	}
+
+	/*
+	 * Size covers are decoded at when they are read back from disk, usually
+	 * the size of the view that shows them.
+	 */
+	public synchronized void setSize(int width, int height){
+		this.width = width;
+		this.height = height;
+	}
+
+	public synchronized Bitmap get(String key){
+		Bitmap cover = memory.get(key);
+		if(cover != null)
+			return cover;
+		File file = fileFor(key);
+		if(!file.exists())
+			return null;
+		cover = CoverDecoder.decode(readFile(file), width, height);
+		if(cover == null){
+			file.delete();
+			return null;
+		}
+		file.setLastModified(System.currentTimeMillis());
+		putMemory(key, cover);
+		return cover;
+	}
+
+	public synchronized void put(String key, byte[] encoded, Bitmap cover){
+		if(cover == null)
+			return;
+		putMemory(key, cover);
+		File file = fileFor(key);
+		try{
+			FileOutputStream out = new FileOutputStream(file);
+			try{
+				out.write(encoded);
+			}
+			finally{
+				out.close();
+			}
+		}
+		catch(IOException e){
+			file.delete();
+			return;
+		}
+		trimDisk();
+	}
+
+	private void putMemory(String key, Bitmap cover){
+		Bitmap old = memory.put(key, cover);
+		if(old != null)
+			memoryBytes -= sizeOf(old);
+		memoryBytes += sizeOf(cover);
+		Iterator<Map.Entry<String, Bitmap>> eldest = memory.entrySet().iterator();
+		while(memoryBytes > MEMORY_BYTES && memory.size() > 1){
+			memoryBytes -= sizeOf(eldest.next().getValue());
+			eldest.remove();
+		}
+	}
+
+	private void trimDisk(){
+		File files[] = dir.listFiles();
+		if(files == null)
+			return;
+		long total = 0;
+		for(File file : files)
+			total += file.length();
+		while(total > DISK_BYTES){
+			File oldest = null;
+			for(File file : files){
+				if(file != null && (oldest == null || file.lastModified() < oldest.lastModified()))
+					oldest = file;
+			}
+			if(oldest == null)
+				break;
+			total -= oldest.length();
+			oldest.delete();
+			for(int i=0;i<files.length;i++){
+				if(files[i] == oldest)
+					files[i] = null;
+			}
+		}
+	}
+
+	private File fileFor(String key){
+		return new File(dir, hash(key));
+	}
+
+	private static long sizeOf(Bitmap cover){
+		return (long)cover.getRowBytes() * cover.getHeight();
+	}
+
+	private static byte[] readFile(File file){
+		try{
+			byte[] data = new byte[(int)file.length()];
+			FileInputStream in = new FileInputStream(file);
+			try{
+				int length = 0;
+				int len;
+				while(length < data.length && (len = in.read(data, length, data.length - length)) > 0)
+					length += len;
+				return length == data.length ? data : null;
+			}
+			finally{
+				in.close();
+			}
+		}
+		catch(IOException e){
+			return null;
+		}
+	}
+
+	private static String hash(String key){
+		try{
+			return hash(key.getBytes("UTF-8"));
+		}
+		catch(IOException e){
+			return Integer.toHexString(key.hashCode());
+		}
+	}
+
+	/* The hex MD5 of data, the same hash the server sends for a cover. */
+	public static String hash(byte[] data){
+		try{
+			byte[] hash = MessageDigest.getInstance("MD5").digest(data);
+			StringBuilder hex = new StringBuilder();
+			for(byte b : hash)
+				hex.append(Integer.toHexString((b & 0xff) | 0x100).substring(1));
+			return hex.toString();
+		}
+		catch(NoSuchAlgorithmException e){
+			return Integer.toHexString(Arrays.hashCode(data));
+		}
+	}
+}
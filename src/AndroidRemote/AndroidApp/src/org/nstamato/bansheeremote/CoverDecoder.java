@@ -0,0 +1,67 @@
+package org.nstamato.bansheeremote;
+
+/*
+BansheeRemote
+
+Copyright (C) 2011 Nikitas Stamatopoulos
+
+Permission is hereby granted, free of charge, to any person obtaining
+a copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+/*
+ * Decodes cover art at roughly the size it is shown at. The bounds are read
+ * first so the JPEG can be subsampled by the largest power of two that
+ * still covers the target size, and pixels are kept as RGB_565. All decodes
+ * share one temporary buffer instead of allocating their own.
+ */
+public class CoverDecoder {
+	private static final byte[] tempStorage = new byte[16 * 1024];
+
+	public static Bitmap decode(byte[] data, int width, int height){
+		if(data == null || data.length == 0)
+			return null;
+		synchronized(tempStorage){
+			BitmapFactory.Options options = new BitmapFactory.Options();
+			options.inJustDecodeBounds = true;
+			options.inTempStorage = tempStorage;
+			BitmapFactory.decodeByteArray(data, 0, data.length, options);
+			if(options.outWidth <= 0 || options.outHeight <= 0)
+				return null;
+
+			options.inJustDecodeBounds = false;
+			options.inSampleSize = sampleSize(options.outWidth, options.outHeight, width, height);
+			options.inPreferredConfig = Bitmap.Config.RGB_565;
+			options.inDither = true;
+			return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+		}
+	}
+
+	private static int sampleSize(int outWidth, int outHeight, int width, int height){
+		int sampleSize = 1;
+		if(width <= 0 || height <= 0)
+			return sampleSize;
+		while(outWidth / (sampleSize * 2) >= width && outHeight / (sampleSize * 2) >= height)
+			sampleSize *= 2;
+		return sampleSize;
+	}
+}
@@ -0,0 +1,194 @@
+package org.nstamato.bansheeremote;
+
+/*
+BansheeRemote
+
+Copyright (C) 2011 Nikitas Stamatopoulos
+
+Permission is hereby granted, free of charge, to any person obtaining
+a copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.zip.GZIPInputStream;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+/*
+ * Brings an existing local copy of banshee.db up to date with the
+ * "syncDelta" command. The watermarks are read back from the copy itself
+ * (newest update/removal stamps), the server answers with the tracks and
+ * removals stamped at or after them plus all albums and artists, which
+ * have no stamp of their own, and everything is applied in one
+ * transaction, so a failed delta leaves the copy untouched.
+ *
+ * The reply is a list of lines: "table\t<name>\t<columns...>" starts a
+ * table, "+\t<values...>" is one row of it and "end" closes the reply.
+ * Values escape backslash, tab and newlines, "\N" is NULL. The reply is
+ * requested gzipped and inflated as it is read back from the scratch file.
+ */
+public class DeltaSync {
+	private static final String[] tables = {"CoreTracks", "CoreRemovedTracks", "CoreAlbums", "CoreArtists"};
+
+	public static String watermark(SQLiteDatabase db){
+		// album and artist watermarks of 0 ask for those tables whole, which
+		// servers that still compare ids answer the same way
+		return maxOf(db, "SELECT MAX(DateUpdatedStamp) FROM CoreTracks") + ","
+			+ maxOf(db, "SELECT MAX(DateRemovedStamp) FROM CoreRemovedTracks") + ",0,0";
+	}
+
+	public static void sync(RemoteSession session, File dbFile, File scratch) throws IOException{
+		SQLiteDatabase db = SQLiteDatabase.openDatabase(dbFile.getAbsolutePath(), null, SQLiteDatabase.NO_LOCALIZED_COLLATORS);
+		try{
+			FileOutputStream delta = new FileOutputStream(scratch);
+			try{
+				session.request("syncDelta", watermark(db) + ",gzip", delta);
+			}
+			finally{
+				delta.close();
+			}
+			InputStream in = new FileInputStream(scratch);
+			try{
+				apply(db, new BufferedReader(new InputStreamReader(new GZIPInputStream(in), "UTF-8")));
+			}
+			finally{
+				in.close();
+			}
+		}
+		finally{
+			db.close();
+			scratch.delete();
+		}
+	}
+
+	public static void apply(SQLiteDatabase db, BufferedReader reader) throws IOException{
+		db.beginTransaction();
+		try{
+			String table = null;
+			SQLiteStatement upsert = null;
+			SQLiteStatement removeTrack = db.compileStatement("DELETE FROM CoreTracks WHERE TrackID=?");
+			int trackIdColumn = -1;
+			boolean done = false;
+			String line;
+			while(!done && (line = reader.readLine()) != null){
+				String fields[] = line.split("\t", -1);
+				if(fields[0].equals("table")){
+					if(upsert != null)
+						upsert.close();
+					table = fields[1];
+					trackIdColumn = -1;
+					upsert = db.compileStatement(upsertFor(fields));
+					for(int i=2;i<fields.length;i++){
+						if(fields[i].equals("TrackID"))
+							trackIdColumn = i-1;
+					}
+				}
+				else if(fields[0].equals("+")){
+					if(upsert == null)
+						throw new IOException("Row outside of a table");
+					upsert.clearBindings();
+					for(int i=1;i<fields.length;i++){
+						String value = unescape(fields[i]);
+						if(value == null)
+							upsert.bindNull(i);
+						else
+							upsert.bindString(i, value);
+					}
+					upsert.execute();
+					if(table.equals("CoreRemovedTracks") && trackIdColumn > 0){
+						removeTrack.bindString(1, fields[trackIdColumn]);
+						removeTrack.execute();
+					}
+				}
+				else if(fields[0].equals("end")){
+					done = true;
+				}
+			}
+			if(upsert != null)
+				upsert.close();
+			removeTrack.close();
+			if(!done)
+				throw new IOException("Truncated delta");
+			db.execSQL("DELETE FROM CoreAlbums WHERE AlbumID NOT IN (SELECT AlbumID FROM CoreTracks)");
+			db.execSQL("DELETE FROM CoreArtists WHERE ArtistID NOT IN (SELECT ArtistID FROM CoreTracks)");
+			db.setTransactionSuccessful();
+		}
+		finally{
+			db.endTransaction();
+		}
+	}
+
+	private static String upsertFor(String fields[]) throws IOException{
+		boolean known = false;
+		for(String table : tables){
+			if(table.equals(fields[1]))
+				known = true;
+		}
+		if(!known || fields.length < 3)
+			throw new IOException("Unexpected table " + fields[1]);
+		String query = "INSERT OR REPLACE INTO " + fields[1] + " (";
+		String values = "";
+		for(int i=2;i<fields.length;i++){
+			if(!fields[i].matches("[A-Za-z0-9_]+"))
+				throw new IOException("Unexpected column " + fields[i]);
+			query += (i > 2 ? "," : "") + fields[i];
+			values += (i > 2 ? ",?" : "?");
+		}
+		return query + ") VALUES (" + values + ")";
+	}
+
+	private static String unescape(String value){
+		if(value.equals("\\N"))
+			return null;
+		if(value.indexOf('\\') < 0)
+			return value;
+		StringBuilder unescaped = new StringBuilder(value.length());
+		for(int i=0;i<value.length();i++){
+			char c = value.charAt(i);
+			if(c == '\\' && i+1 < value.length()){
+				c = value.charAt(++i);
+				if(c == 't')
+					c = '\t';
+				else if(c == 'n')
+					c = '\n';
+				else if(c == 'r')
+					c = '\r';
+			}
+			unescaped.append(c);
+		}
+		return unescaped.toString();
+	}
+
+	private static long maxOf(SQLiteDatabase db, String query){
+		SQLiteStatement statement = db.compileStatement(query);
+		try{
+			return statement.simpleQueryForLong();
+		}
+		finally{
+			statement.close();
+		}
+	}
+}
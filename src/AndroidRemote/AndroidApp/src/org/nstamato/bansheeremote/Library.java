@@ -0,0 +1,231 @@
+package org.nstamato.bansheeremote;
+
+/*
+BansheeRemote
+
+Copyright (C) 2011 Nikitas Stamatopoulos
+
+Permission is hereby granted, free of charge, to any person obtaining
+a copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+import java.io.File;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Environment;
+
+/*
+ * The local copy of banshee.db on the sd-card, shared by every screen of
+ * the app. The database is opened once, by the first query on the
+ * QueryExecutor thread, and every query runs there against that one
+ * handle, so the UI thread never waits on the sd-card. After Sync has replaced
+ * or updated the file, reopen() drops the handle so the next query opens
+ * the new copy.
+ *
+ * Queries read the Browse tables LibraryIndexer builds after a sync, and
+ * fall back to Banshee's own tables for a copy that was synced before they
+ * existed.
+ */
+public class Library {
+	public static final String DB_NAME = "banshee.db";
+	/* "artist/album" as the song lists show it, from CoreTracks joined with its artist and album */
+	static final String DISPLAY = "COALESCE(CoreArtists.Name,'Unknown Artist') || COALESCE('/' || CoreAlbums.Title,'')";
+	private static Library instance;
+
+	private SQLiteDatabase db;
+	private boolean browseTables;
+
+	private Library(){
+	}
+
+	public static synchronized Library get(){
+		if(instance == null)
+			instance = new Library();
+		return instance;
+	}
+
+	public File file(){
+		return new File(Environment.getExternalStorageDirectory(), DB_NAME);
+	}
+
+	/* Opens the database if needed; throws SQLiteException if it isn't there. */
+	private synchronized SQLiteDatabase db(){
+		if(db == null){
+			db = SQLiteDatabase.openDatabase(file().getAbsolutePath(), null, SQLiteDatabase.NO_LOCALIZED_COLLATORS);
+			Cursor c = db.rawQuery("SELECT name FROM sqlite_master WHERE type='table' AND name='BrowseTracks'", null);
+			try{
+				browseTables = c.getCount() > 0;
+			}
+			finally{
+				c.close();
+			}
+		}
+		return db;
+	}
+
+	/*
+	 * Closes the current handle once the queries already queued on it are
+	 * done; the next query opens the file again.
+	 */
+	public synchronized void reopen(){
+		QueryExecutor.close(db);
+		db = null;
+	}
+
+	/*
+	 * A query that opens the database and then runs browseQuery if it has
+	 * the Browse tables, coreQuery if not, all on the query thread.
+	 */
+	private QueryExecutor.Statement statement(final String browseQuery, final String coreQuery, final String[] params){
+		return new QueryExecutor.Statement(){
+			public Cursor query(){
+				SQLiteDatabase db = db();
+				return db.rawQuery(hasBrowseTables() ? browseQuery : coreQuery, params);
+			}
+		};
+	}
+
+	private synchronized boolean hasBrowseTables(){
+		return browseTables;
+	}
+
+	public QueryExecutor.Query artists(QueryExecutor.Receiver<String> receiver){
+		QueryExecutor.Statement query = statement("SELECT Name FROM BrowseArtists ORDER BY Name",
+			"SELECT Name FROM CoreArtists WHERE Name IS NOT NULL ORDER BY Name", null);
+		return QueryExecutor.execute(query, new QueryExecutor.RowReader<String>(){
+			public String read(Cursor c){
+				return c.getString(0);
+			}
+		}, receiver);
+	}
+
+	/*
+	 * Albums of the given artist, or of everyone if artist is null. Albums
+	 * without a title are folded into a single "Unknown Artist" entry.
+	 */
+	public QueryExecutor.Query albums(String artist, QueryExecutor.Receiver<AlbumListItem> receiver){
+		String columns = "SELECT Title, TitleLowered, ArtistName, AlbumID FROM ";
+		String filter = "";
+		String[] params = null;
+		if(artist != null){
+			filter = " WHERE ArtistName=?";
+			params = new String[]{artist};
+		}
+		filter += " ORDER BY Title";
+		QueryExecutor.Statement query = statement(columns + "BrowseAlbums" + filter, columns + "CoreAlbums" + filter, params);
+		return QueryExecutor.execute(query, new QueryExecutor.RowReader<AlbumListItem>(){
+			private boolean addedNull = false;
+
+			public AlbumListItem read(Cursor c){
+				AlbumListItem albumItem = new AlbumListItem();
+				String label = c.getString(0);
+				String artist = c.getString(2);
+				albumItem.setAlbumId(c.getInt(3));
+				if(label != null){
+					albumItem.setAlbumName(label);
+					albumItem.setArtist(artist != null ? artist : "");
+					return albumItem;
+				}
+				if(addedNull)
+					return null;
+				albumItem.setAlbumName(c.getString(1));
+				albumItem.setArtist("Unknown Artist");
+				addedNull = true;
+				return albumItem;
+			}
+		}, receiver);
+	}
+
+	/* Number of tracks on an album, or in the whole library if albumId is negative. */
+	public QueryExecutor.Query trackCount(int albumId, QueryExecutor.Receiver<Integer> receiver){
+		String browseQuery = albumId < 0
+			? "SELECT COALESCE(MAX(Position),0) FROM BrowseTracks"
+			: "SELECT COUNT(*) FROM BrowseTracks WHERE AlbumID=?";
+		QueryExecutor.Statement query = statement(browseQuery, "SELECT COUNT(*) FROM (" + tracksQuery(albumId) + ")", tracksParams(albumId));
+		return QueryExecutor.execute(query, new QueryExecutor.RowReader<Integer>(){
+			public Integer read(Cursor c){
+				return c.getInt(0);
+			}
+		}, receiver);
+	}
+
+	/*
+	 * limit tracks of an album, or of the whole library if albumId is
+	 * negative, starting at offset. Album tracks are in track order, the
+	 * whole library is by title. Every order ends on a unique key, so tied
+	 * rows can't move between windows.
+	 */
+	public QueryExecutor.Query tracks(int albumId, int offset, int limit, QueryExecutor.Receiver<SongListItem> receiver){
+		String browseQuery = albumId < 0
+			? "SELECT Title, Uri, Display FROM BrowseTracks WHERE Position>" + offset + " ORDER BY Position LIMIT " + limit
+			: "SELECT Title, Uri, Display FROM BrowseTracks WHERE AlbumID=? ORDER BY TrackNumber, Position LIMIT " + limit + " OFFSET " + offset;
+		QueryExecutor.Statement query = statement(browseQuery, tracksQuery(albumId) + " LIMIT " + limit + " OFFSET " + offset, tracksParams(albumId));
+		return QueryExecutor.execute(query, new QueryExecutor.RowReader<SongListItem>(){
+			public SongListItem read(Cursor c){
+				return songItem(c);
+			}
+		}, receiver);
+	}
+
+	/*
+	 * Tracks matching every word of text as a prefix of a word of their
+	 * title, artist or album, best matches first: title, then artist, then
+	 * album prefixes. Needs the TrackSearch index built by LibraryIndexer.
+	 */
+	public QueryExecutor.Query search(String text, int limit, QueryExecutor.Receiver<SongListItem> receiver){
+		String match = "";
+		for(String word : text.split("[^\\p{L}\\p{N}]+")){
+			if(word.length() > 0)
+				match += (match.length() > 0 ? " " : "") + word + "*";
+		}
+		String like = text.trim() + "%";
+		String query = "SELECT TrackSearch.Title, CoreTracks.Uri, COALESCE(TrackSearch.Artist,'Unknown Artist') || COALESCE('/' || TrackSearch.Album,'')"
+			+ " FROM TrackSearch JOIN CoreTracks ON CoreTracks.TrackID=TrackSearch.docid"
+			+ " WHERE TrackSearch MATCH ?"
+			+ " ORDER BY CASE WHEN TrackSearch.Title LIKE ? THEN 0 WHEN TrackSearch.Artist LIKE ? THEN 1 WHEN TrackSearch.Album LIKE ? THEN 2 ELSE 3 END, TrackSearch.Title"
+			+ " LIMIT " + limit;
+		return QueryExecutor.execute(statement(query, query, new String[]{match, like, like, like}), new QueryExecutor.RowReader<SongListItem>(){
+			public SongListItem read(Cursor c){
+				return songItem(c);
+			}
+		}, receiver);
+	}
+
+	/* Reads a title, uri, display row */
+	private static SongListItem songItem(Cursor c){
+		SongListItem songItem = new SongListItem();
+		songItem.setSongName(c.getString(0));
+		songItem.setUri(c.getString(1));
+		songItem.setArtist(c.getString(2));
+		return songItem;
+	}
+
+	private static String tracksQuery(int albumId){
+		String query = "SELECT CoreTracks.Title, CoreTracks.Uri, " + DISPLAY + " FROM CoreTracks,CoreAlbums,CoreArtists"
+			+ " WHERE CoreTracks.Title IS NOT NULL AND CoreTracks.AlbumID==CoreAlbums.AlbumID AND CoreTracks.ArtistID==CoreArtists.ArtistID";
+		if(albumId >= 0)
+			return query + " AND CoreTracks.AlbumID=? ORDER BY CoreTracks.TrackNumber, CoreTracks.TrackID";
+		return query + " ORDER BY CoreTracks.Title, CoreTracks.TrackID";
+	}
+
+	private static String[] tracksParams(int albumId){
+		return albumId >= 0 ? new String[]{String.valueOf(albumId)} : null;
+	}
+}
@@ -0,0 +1,90 @@
+package org.nstamato.bansheeremote;
+
+/*
+BansheeRemote
+
+Copyright (C) 2011 Nikitas Stamatopoulos
+
+Permission is hereby granted, free of charge, to any person obtaining
+a copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+import java.io.File;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/*
+ * Builds the tables the app adds to its copy of banshee.db once a sync has
+ * finished. TrackSearch is an FTS3 index over the title, artist and album
+ * of every track, keyed by TrackID, which the search screen queries with
+ * prefix matches instead of scanning CoreTracks.
+ *
+ * The Browse tables hold what the browse screens show, already joined and
+ * with the display strings built, each with an index covering its query.
+ * BrowseTracks is filled in title order, so its Position is the row number
+ * of the "Songs" list and a window of it is a range of the primary key.
+ */
+public class LibraryIndexer {
+	public static void index(File dbFile){
+		SQLiteDatabase db = SQLiteDatabase.openDatabase(dbFile.getAbsolutePath(), null, SQLiteDatabase.NO_LOCALIZED_COLLATORS);
+		try{
+			db.beginTransaction();
+			try{
+				db.execSQL("DROP TABLE IF EXISTS TrackSearch");
+				db.execSQL("CREATE VIRTUAL TABLE TrackSearch USING fts3(Title, Artist, Album)");
+				db.execSQL("INSERT INTO TrackSearch (docid, Title, Artist, Album)"
+					+ " SELECT CoreTracks.TrackID, CoreTracks.Title, CoreArtists.Name, CoreAlbums.Title"
+					+ " FROM CoreTracks LEFT JOIN CoreArtists ON CoreTracks.ArtistID=CoreArtists.ArtistID"
+					+ " LEFT JOIN CoreAlbums ON CoreTracks.AlbumID=CoreAlbums.AlbumID"
+					+ " WHERE CoreTracks.Title IS NOT NULL");
+				browseTables(db);
+				db.setTransactionSuccessful();
+			}
+			finally{
+				db.endTransaction();
+			}
+			db.execSQL("ANALYZE");
+		}
+		finally{
+			db.close();
+		}
+	}
+
+	private static void browseTables(SQLiteDatabase db){
+		db.execSQL("DROP TABLE IF EXISTS BrowseArtists");
+		db.execSQL("CREATE TABLE BrowseArtists (Name TEXT NOT NULL)");
+		db.execSQL("INSERT INTO BrowseArtists (Name) SELECT Name FROM CoreArtists WHERE Name IS NOT NULL");
+		db.execSQL("CREATE INDEX BrowseArtistsName ON BrowseArtists (Name)");
+
+		db.execSQL("DROP TABLE IF EXISTS BrowseAlbums");
+		db.execSQL("CREATE TABLE BrowseAlbums (AlbumID INTEGER, Title TEXT, TitleLowered TEXT, ArtistName TEXT)");
+		db.execSQL("INSERT INTO BrowseAlbums (AlbumID, Title, TitleLowered, ArtistName) SELECT AlbumID, Title, TitleLowered, ArtistName FROM CoreAlbums");
+		db.execSQL("CREATE INDEX BrowseAlbumsTitle ON BrowseAlbums (Title, TitleLowered, ArtistName, AlbumID)");
+		db.execSQL("CREATE INDEX BrowseAlbumsArtist ON BrowseAlbums (ArtistName, Title, TitleLowered, AlbumID)");
+
+		db.execSQL("DROP TABLE IF EXISTS BrowseTracks");
+		db.execSQL("CREATE TABLE BrowseTracks (Position INTEGER PRIMARY KEY, AlbumID INTEGER, TrackNumber INTEGER, Title TEXT, Uri TEXT, Display TEXT)");
+		db.execSQL("INSERT INTO BrowseTracks (AlbumID, TrackNumber, Title, Uri, Display)"
+			+ " SELECT CoreTracks.AlbumID, CoreTracks.TrackNumber, CoreTracks.Title, CoreTracks.Uri, " + Library.DISPLAY
+			+ " FROM CoreTracks,CoreAlbums,CoreArtists"
+			+ " WHERE CoreTracks.Title IS NOT NULL AND CoreTracks.AlbumID==CoreAlbums.AlbumID AND CoreTracks.ArtistID==CoreArtists.ArtistID"
+			+ " ORDER BY CoreTracks.Title, CoreTracks.TrackID");
+		db.execSQL("CREATE INDEX BrowseTracksAlbum ON BrowseTracks (AlbumID, TrackNumber, Position, Title, Uri, Display)");
+	}
+}
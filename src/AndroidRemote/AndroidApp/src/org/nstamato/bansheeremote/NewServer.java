@@ -28,9 +28,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.io.OutputStreamWriter;
-import java.net.Socket;
 import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
@@ -120,60 +118,53 @@ public class NewServer extends Activity {
 			public void onClick(View v) {
 				EditText iptext = (EditText)findViewById(R.id.ip);
 		        EditText porttext = (EditText)findViewById(R.id.port);
-				String ip = iptext.getText().toString();
-				Socket s;
-				OutputStream os;
-				String command = "test/";
-				boolean canConnect = false;
-				int port=0;
-	
-	    			try {
-	    				port=Integer.parseInt(porttext.getText().toString());
-	    				s = new Socket(ip,port); 
-	    				os = s.getOutputStream();
-	    				os.write(command.getBytes(), 0, command.length());
-	   					s.close();
-	   					os.close();
-	   					canConnect = true;
-	   				} catch(Exception e) {
-	    				canConnect = false;
-	    				Toast.makeText(NewServer.this,"Can't connect to Server. Check your settings.",Toast.LENGTH_SHORT).show();
-	   				}
-				
-				if(canConnect){
-					Intent response = new Intent(NewServer.this,main.class);
-					response.putExtra("ip",ip);
-					response.putExtra("port", port);
-					String newServer = ip+':'+porttext.getText().toString();
-					boolean exists = false;
-					if(serversExist){
-			        	for(int i=0;i<savedServers.length-1;i++){
-			        		if(newServer.equals(savedServers[i])){
-			        			exists = true;
+				final String ip = iptext.getText().toString();
+				final int port;
+				try {
+					port=Integer.parseInt(porttext.getText().toString());
+				} catch(NumberFormatException e) {
+					Toast.makeText(NewServer.this,"Can't connect to Server. Check your settings.",Toast.LENGTH_SHORT).show();
+					return;
+				}
+				final String newServer = ip+':'+porttext.getText().toString();
+				CommandExecutor.test(RemoteSession.get(ip,port),NewServer.this,new CommandExecutor.Callback<String>(){
+					public void onResult(String result){
+						Intent response = new Intent(NewServer.this,main.class);
+						response.putExtra("ip",ip);
+						response.putExtra("port", port);
+						boolean exists = false;
+						if(serversExist){
+				        	for(int i=0;i<savedServers.length-1;i++){
+				        		if(newServer.equals(savedServers[i])){
+				        			exists = true;
 
-			        		}
-			        	}
+				        		}
+				        	}
 					
-			        	if(!exists){
-			        		int numberServersSaved = savedServers.length-1;
-			        		if(numberServersSaved<5)
-			        			writeSettings(NewServer.this,filename,newServer);
-			        		else{
-			        			deleteFile(filename);
-			        			for(int i=1;i<numberServersSaved;i++){
-			        				writeSettings(NewServer.this,filename,savedServers[i]);
-			        			}
-			        			writeSettings(NewServer.this,filename,newServer);
-			        		}
-			        	}
+				        	if(!exists){
+				        		int numberServersSaved = savedServers.length-1;
+				        		if(numberServersSaved<5)
+				        			writeSettings(NewServer.this,filename,newServer);
+				        		else{
+				        			deleteFile(filename);
+				        			for(int i=1;i<numberServersSaved;i++){
+				        				writeSettings(NewServer.this,filename,savedServers[i]);
+				        			}
+				        			writeSettings(NewServer.this,filename,newServer);
+				        		}
+				        	}
+						}
+						else{
+							writeSettings(NewServer.this,filename,newServer);
+						}
+						startActivityForResult(response,1);
+						//setResult(RESULT_OK,response);
+						//finish();
 					}
-					else{
-						writeSettings(NewServer.this,filename,newServer);
+					public void onError(Exception e){
+						Toast.makeText(NewServer.this,"Can't connect to Server. Check your settings.",Toast.LENGTH_SHORT).show();
 					}
-					startActivityForResult(response,1);
-					//setResult(RESULT_OK,response);
-					//finish();
-				}
+				});
 			}
         	
         });
@@ -0,0 +1,68 @@
+package org.nstamato.bansheeremote;
+
+/*
+BansheeRemote
+
+Copyright (C) 2011 Nikitas Stamatopoulos
+
+Permission is hereby granted, free of charge, to any person obtaining
+a copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+import android.os.SystemClock;
+
+/*
+ * The playback position as the client believes it to be between server
+ * updates: the last position the server reported, moved forward by the
+ * time that passed since then while the player is playing. Positions are
+ * in seconds and never run past the track duration.
+ */
+public class PlaybackClock {
+	private int anchorPosition = 0;
+	private int duration = 0;
+	private long anchorTime = 0;
+	private boolean running = false;
+
+	public synchronized void set(int position, int duration, boolean running){
+		this.anchorPosition = position;
+		this.duration = duration;
+		this.running = running;
+		this.anchorTime = SystemClock.elapsedRealtime();
+	}
+
+	public synchronized int position(){
+		if(!running)
+			return anchorPosition;
+		return (int)Math.min(duration, anchorPosition + sinceAnchor() / 1000);
+	}
+
+	public synchronized boolean isRunning(){
+		return running && anchorPosition + sinceAnchor() / 1000 < duration;
+	}
+
+	/* Milliseconds since the server last reported the position. */
+	public synchronized long sinceAnchor(){
+		return SystemClock.elapsedRealtime() - anchorTime;
+	}
+
+	/* Milliseconds until position() moves on to the next second. */
+	public synchronized long untilNextSecond(){
+		return 1000 - sinceAnchor() % 1000;
+	}
+}
@@ -0,0 +1,163 @@
+package org.nstamato.bansheeremote;
+
+/*
+BansheeRemote
+
+Copyright (C) 2011 Nikitas Stamatopoulos
+
+Permission is hereby granted, free of charge, to any person obtaining
+a copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+/*
+ * Subscription to the player state changes pushed by the server. After the
+ * "subscribe/frames" handshake the server sends one event for the current
+ * state and then one per change. The kinds "state", "track" and "seek"
+ * carry the same fields as the "all" command, "shuffle" and "repeat" the
+ * new mode.
+ *
+ * Events are RemoteFrames holding the kind and then the fields. A server
+ * that predates them answers "subscribe 1" and sends text frames,
+ * "<kind> <length>\n<body>" with the fields separated by '/'.
+ */
+public class PlayerEventStream {
+	public static class Event {
+		public final String kind;
+		public final String fields[];
+
+		public Event(String kind, String fields[]){
+			this.kind = kind;
+			this.fields = fields;
+		}
+	}
+
+	private Socket s;
+	private DataInputStream is;
+	private boolean framed;
+	private final byte[] buffer = new byte[1024];
+
+	public PlayerEventStream(String server, int port) throws IOException{
+		CircuitBreaker breaker = RemoteSession.get(server, port).getBreaker();
+		breaker.check();
+		try{
+			s = RemoteSession.open(server, port);
+		}
+		catch(IOException e){
+			breaker.failed();
+			throw e;
+		}
+		try{
+			OutputStream os = s.getOutputStream();
+			is = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+			String command = "subscribe/frames";
+			os.write(command.getBytes(), 0, command.length());
+			os.flush();
+			String handshake = readLine(RemoteFrame.MAGIC.length());
+			framed = handshake.equals(RemoteFrame.MAGIC);
+			if(framed)
+				is.readUnsignedByte();
+			else if(!(handshake + readLine()).startsWith("subscribe"))
+				throw new IOException("Server does not support subscriptions");
+			breaker.succeeded();
+		}
+		catch(IOException e){
+			close();
+			throw e;
+		}
+	}
+
+	/*
+	 * Waits up to timeout milliseconds for the next event and returns null
+	 * if nothing changed on the server in that time.
+	 */
+	public Event next(int timeout) throws IOException{
+		s.setSoTimeout(timeout);
+		int first;
+		try{
+			first = is.read();
+		}
+		catch(SocketTimeoutException e){
+			return null;
+		}
+		if(first < 0)
+			throw new IOException("Connection closed by server");
+		s.setSoTimeout(RemoteSession.READ_TIMEOUT);
+		if(framed){
+			int remaining = RemoteFrame.readLength(first, is) - 4;
+			is.readInt();
+			String fields[] = RemoteFrame.readFields(is, remaining, buffer);
+			if(fields.length == 0)
+				throw new IOException("Event without a kind");
+			String values[] = new String[fields.length - 1];
+			System.arraycopy(fields, 1, values, 0, values.length);
+			return new Event(fields[0], values);
+		}
+		String header[] = ((char)first + readLine()).split(" ");
+		if(header.length != 2)
+			throw new IOException("Malformed event header");
+		byte[] body;
+		try{
+			body = new byte[Integer.parseInt(header[1])];
+		}
+		catch(NumberFormatException e){
+			throw new IOException("Malformed event header");
+		}
+		is.readFully(body);
+		return new Event(header[0], new String(body, "UTF-8").split("/", -1));
+	}
+
+	public void close(){
+		try{
+			if(s != null)
+				s.close();
+		}
+		catch(IOException e){
+		}
+		s = null;
+		is = null;
+	}
+
+	private String readLine() throws IOException{
+		return readLine(Integer.MAX_VALUE);
+	}
+
+	/* Reads up to a newline, or at most max bytes. */
+	private String readLine(int max) throws IOException{
+		BufferPool.Buffer line = BufferPool.acquire();
+		try{
+			int b;
+			while(line.size() < max && (b = is.read()) != '\n'){
+				if(b < 0)
+					throw new IOException("Connection closed by server");
+				line.write(b);
+			}
+			return line.toString("UTF-8");
+		}
+		finally{
+			BufferPool.release(line);
+		}
+	}
+}
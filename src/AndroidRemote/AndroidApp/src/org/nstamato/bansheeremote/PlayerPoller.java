@@ -0,0 +1,265 @@
+package org.nstamato.bansheeremote;
+
+/*
+BansheeRemote
+
+Copyright (C) 2011 Nikitas Stamatopoulos
+
+Permission is hereby granted, free of charge, to any person obtaining
+a copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+import android.os.Handler;
+
+/*
+ * The thread that follows the player state for main. There is at most one
+ * per process: start() terminates the previous poller before it returns
+ * the new one. A poller is RUNNING, PAUSED while its activity is in the
+ * background or the library is syncing, in which case its event stream is
+ * closed and the thread waits, or TERMINATED, after which the thread ends
+ * and the client, and through it the activity, is let go.
+ *
+ * Work that must not overlap the poller, like a library sync, calls
+ * quiesce(): the poller is paused and the listener is told on the given
+ * handler once the thread has stopped using the connection, or that it
+ * didn't within the timeout. Nobody waits for it.
+ */
+public class PlayerPoller {
+	public interface Client {
+		String getServer();
+		int getPort();
+		/* How long to wait for pushed events before asking for "all". */
+		int pollDelay(PollScheduler scheduler);
+		/* Called on the poller thread with every event or polled state. */
+		void onEvent(PlayerEventStream.Event event) throws Exception;
+	}
+
+	public interface QuiesceListener {
+		void onQuiesced();
+		void onTimeout();
+	}
+
+	public static final int RUNNING = 0, PAUSED = 1, TERMINATED = 2;
+
+	private static PlayerPoller instance;
+
+	private final PollScheduler scheduler = new PollScheduler();
+	private final Thread thread;
+	private Client client;
+	private int state = RUNNING;
+	private boolean parked = false;
+	private PlayerEventStream stream;
+	private Quiesce quiescing;
+
+	private PlayerPoller(Client client){
+		this.client = client;
+		this.thread = new Thread(new Runnable(){
+			public void run(){
+				poll();
+			}
+		}, "PlayerPoller");
+		this.thread.setDaemon(true);
+	}
+
+	public static synchronized PlayerPoller start(Client client){
+		if(instance != null)
+			instance.terminate();
+		instance = new PlayerPoller(client);
+		instance.thread.start();
+		return instance;
+	}
+
+	public synchronized int getState(){
+		return state;
+	}
+
+	public synchronized void pause(){
+		if(state != RUNNING)
+			return;
+		state = PAUSED;
+		closeStream();
+		// ends a backoff, so the thread parks right away
+		notifyAll();
+	}
+
+	/*
+	 * Pauses the poller and calls back on handler once its thread has parked,
+	 * or after timeout milliseconds. A resume() in between cancels it.
+	 */
+	public synchronized void quiesce(Handler handler, long timeout, QuiesceListener listener){
+		pause();
+		if(state != PAUSED)
+			return;
+		if(quiescing != null)
+			quiescing.cancel();
+		quiescing = new Quiesce(handler, listener);
+		if(parked || !thread.isAlive())
+			handler.post(quiescing);
+		else
+			handler.postDelayed(quiescing.timeout, timeout);
+	}
+
+	public synchronized void resume(){
+		if(state != PAUSED)
+			return;
+		state = RUNNING;
+		if(quiescing != null)
+			quiescing.cancel();
+		notifyAll();
+	}
+
+	public void terminate(){
+		synchronized(this){
+			if(state == TERMINATED)
+				return;
+			state = TERMINATED;
+			client = null;
+			closeStream();
+			if(quiescing != null)
+				quiescing.cancel();
+			notifyAll();
+		}
+		thread.interrupt();
+		synchronized(PlayerPoller.class){
+			if(instance == this)
+				instance = null;
+		}
+	}
+
+	public boolean isAlive(){
+		return thread.isAlive();
+	}
+
+	private void poll(){
+		PlayerEventStream events = null;
+		Client client;
+		while((client = awaitRunning()) != null){
+			try{
+				if(events == null){
+					events = new PlayerEventStream(client.getServer(), client.getPort());
+					setStream(events);
+				}
+				PlayerEventStream.Event event = events.next(client.pollDelay(scheduler));
+				if(event == null){
+					// nothing was pushed for a while, check the clock and the track against the server
+					String fields[] = CommandExecutor.submit(RemoteSession.get(client.getServer(), client.getPort()), CommandExecutor.POLL, new CommandExecutor.Call<String[]>(){
+						public String[] run(RemoteSession session) throws Exception{
+							return session.getFields("all", null);
+						}
+					}, null).await();
+					event = new PlayerEventStream.Event("state", fields);
+				}
+				scheduler.succeeded();
+				client.onEvent(event);
+			}
+			catch(Exception e){
+				if(events != null)
+					events.close();
+				events = null;
+				setStream(null);
+				// a stream closed by pause() or terminate() isn't a failure
+				if(getState() == RUNNING)
+					backOff(scheduler.failed());
+			}
+		}
+		if(events != null)
+			events.close();
+	}
+
+	/* Waits delay milliseconds after a failure, unless paused or terminated first. */
+	private synchronized void backOff(long delay){
+		long until = System.currentTimeMillis() + delay;
+		long left;
+		while(state == RUNNING && (left = until - System.currentTimeMillis()) > 0){
+			try{
+				wait(left);
+			}
+			catch(InterruptedException e){
+				return;
+			}
+		}
+	}
+
+	/* Waits while paused; returns the client, or null once terminated. */
+	private synchronized Client awaitRunning(){
+		while(state == PAUSED){
+			parked = true;
+			if(quiescing != null)
+				quiescing.handler.post(quiescing);
+			try{
+				wait();
+			}
+			catch(InterruptedException e){
+			}
+		}
+		parked = false;
+		return state == RUNNING ? client : null;
+	}
+
+	private synchronized void setStream(PlayerEventStream stream){
+		this.stream = stream;
+		if(state != RUNNING)
+			closeStream();
+	}
+
+	private void closeStream(){
+		if(stream != null)
+			stream.close();
+		stream = null;
+	}
+
+	/* One pending quiesce(); whichever of parking and the timeout comes first wins. */
+	private class Quiesce implements Runnable {
+		final Handler handler;
+		final QuiesceListener listener;
+		final Runnable timeout = new Runnable(){
+			public void run(){
+				if(finish(false))
+					listener.onTimeout();
+			}
+		};
+
+		Quiesce(Handler handler, QuiesceListener listener){
+			this.handler = handler;
+			this.listener = listener;
+		}
+
+		public void run(){
+			if(finish(true))
+				listener.onQuiesced();
+		}
+
+		/* Must be called holding the poller's lock. */
+		void cancel(){
+			handler.removeCallbacks(this);
+			handler.removeCallbacks(timeout);
+			if(quiescing == this)
+				quiescing = null;
+		}
+
+		private boolean finish(boolean quiesced){
+			synchronized(PlayerPoller.this){
+				if(quiescing != this || (quiesced && state != PAUSED))
+					return false;
+				cancel();
+				return true;
+			}
+		}
+	}
+}
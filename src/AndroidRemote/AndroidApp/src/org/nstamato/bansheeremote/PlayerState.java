@@ -0,0 +1,164 @@
+package org.nstamato.bansheeremote;
+
+/*
+BansheeRemote
+
+Copyright (C) 2011 Nikitas Stamatopoulos
+
+Permission is hereby granted, free of charge, to any person obtaining
+a copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+import android.graphics.Bitmap;
+
+/*
+ * What main shows about the player at one moment. A PlayerState never
+ * changes once built; a change makes a new one with the with*() methods
+ * and publishes it as a whole, so a reader always sees the title, cover
+ * and times of the same track.
+ */
+public class PlayerState {
+	public static final PlayerState EMPTY = new PlayerState(null, null, null, null, 0, 0, false, null, null, null);
+
+	public final String status;
+	public final String track, artist, album;
+	public final int position, total;
+	public final boolean hasCover;
+	public final Bitmap cover;
+	/* Both null from servers that don't send them. */
+	public final String trackId, coverHash;
+
+	public PlayerState(String status, String track, String artist, String album, int position, int total, boolean hasCover, Bitmap cover, String trackId, String coverHash){
+		this.status = status;
+		this.track = track;
+		this.artist = artist;
+		this.album = album;
+		this.position = position;
+		this.total = total;
+		this.hasCover = hasCover;
+		this.cover = cover;
+		this.trackId = trackId;
+		this.coverHash = coverHash;
+	}
+
+	/*
+	 * Fields of "all": status, album, artist, title, position, duration and
+	 * whether there is a cover, "true"/"false" over the text protocol and
+	 * 1/0 in frames. Newer servers add the track id and the hash of the
+	 * cover, empty if there is none. Returns null unless the first seven
+	 * are there and valid.
+	 */
+	public static PlayerState parse(String fields[]){
+		if(fields.length < 7)
+			return null;
+		String cover = fields[6];
+		if(!cover.equals("true") && !cover.equals("1") && !cover.equals("false") && !cover.equals("0"))
+			return null;
+		String trackId = null, coverHash = null;
+		if(fields.length > 7){
+			// a split that dropped the trailing empty hash still has the track id
+			trackId = fields[7];
+			coverHash = fields.length > 8 ? fields[8] : "";
+		}
+		try{
+			return new PlayerState(fields[0], fields[3], fields[2], fields[1], Integer.parseInt(fields[4]), Integer.parseInt(fields[5]), cover.equals("true") || cover.equals("1"), null, trackId, coverHash);
+		}
+		catch(NumberFormatException e){
+			return null;
+		}
+	}
+
+	/*
+	 * Fields of "prefetch": album, artist, title, duration, whether there is
+	 * a cover, track id and cover hash of the track that plays next. Returns
+	 * it as a state that starts playing it, or null if the server doesn't
+	 * know what comes next. A missing hash is taken as empty.
+	 */
+	public static PlayerState parseNext(String fields[]){
+		if(fields.length < 6)
+			return null;
+		String cover = fields[4];
+		String coverHash = fields.length > 6 ? fields[6] : "";
+		try{
+			return new PlayerState("playing", fields[2], fields[1], fields[0], 0, Integer.parseInt(fields[3]), cover.equals("true") || cover.equals("1"), null, fields[5], coverHash);
+		}
+		catch(NumberFormatException e){
+			return null;
+		}
+	}
+
+	public PlayerState withStatus(String status){
+		return new PlayerState(status, track, artist, album, position, total, hasCover, cover, trackId, coverHash);
+	}
+
+	public PlayerState withPosition(int position){
+		if(position == this.position)
+			return this;
+		return new PlayerState(status, track, artist, album, position, total, hasCover, cover, trackId, coverHash);
+	}
+
+	public PlayerState withCover(Bitmap cover){
+		return new PlayerState(status, track, artist, album, position, total, hasCover, cover, trackId, coverHash);
+	}
+
+	public boolean isPlaying(){
+		return status != null && status.equals("playing");
+	}
+
+	public boolean isIdle(){
+		return status != null && status.contains("idle");
+	}
+
+	/* Whether other shows the same track, by id when the server sends one. */
+	public boolean sameTrack(PlayerState other){
+		if(trackId != null && other.trackId != null)
+			return trackId.equals(other.trackId);
+		return total == other.total && equal(track, other.track) && equal(artist, other.artist) && equal(album, other.album);
+	}
+
+	/* Something that tells this track from others, for servers without ids too. */
+	public String identity(){
+		if(trackId != null)
+			return trackId;
+		return artist + '/' + album + '/' + track + '/' + total;
+	}
+
+	/*
+	 * Whether other shows the same cover. With hashes that is exact, a
+	 * track change to a song of the same album keeps its cover and the
+	 * same track played again doesn't ask for it; without them, covers
+	 * are kept within a track.
+	 */
+	public boolean sameCover(PlayerState other){
+		if(coverHash != null && other.coverHash != null)
+			return coverHash.equals(other.coverHash);
+		return sameTrack(other);
+	}
+
+	/* The key the cover is cached under: its hash, or the album it belongs to. */
+	public String coverKey(){
+		if(coverHash != null && coverHash.length() > 0)
+			return coverHash;
+		return artist + '/' + album;
+	}
+
+	public static boolean equal(Object a, Object b){
+		return a == null ? b == null : a.equals(b);
+	}
+}
@@ -0,0 +1,62 @@
+package org.nstamato.bansheeremote;
+
+/*
+BansheeRemote
+
+Copyright (C) 2011 Nikitas Stamatopoulos
+
+Permission is hereby granted, free of charge, to any person obtaining
+a copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+/*
+ * Decides how long the PlayerPoller waits for pushed events before it asks
+ * the server for the state itself. Close to the end of a track it asks
+ * every second so the next track shows up right away, while playing it
+ * asks now and then to correct the local clock, and when paused or idle it
+ * hardly asks at all. Failures back off exponentially.
+ */
+public class PollScheduler {
+	public static final int FAST = 1000;
+	public static final int PLAYING = 30000;
+	public static final int STOPPED = 60000;
+	public static final int MAX_BACKOFF = 60000;
+	/* Seconds before the end of a track that count as near its end. */
+	public static final int BOUNDARY = 5;
+
+	private int failures = 0;
+
+	public synchronized int pollDelay(String status, int position, int total){
+		if(status == null || !status.equals("playing"))
+			return STOPPED;
+		if(total > 0 && total - position <= BOUNDARY)
+			return FAST;
+		return PLAYING;
+	}
+
+	/* Records a failure and returns how long to wait before trying again. */
+	public synchronized int failed(){
+		failures++;
+		return (int)Math.min(MAX_BACKOFF, (long)FAST << Math.min(failures - 1, 16));
+	}
+
+	public synchronized void succeeded(){
+		failures = 0;
+	}
+}
@@ -0,0 +1,156 @@
+package org.nstamato.bansheeremote;
+
+/*
+BansheeRemote
+
+Copyright (C) 2011 Nikitas Stamatopoulos
+
+Permission is hereby granted, free of charge, to any person obtaining
+a copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Handler;
+import android.os.Looper;
+
+/*
+ * Runs the browse queries on one background thread shared by the whole
+ * app and hands the rows back on the UI thread in batches as the cursor is
+ * walked. Everything a query needs, opening the database included, happens
+ * on that thread. The first batch is small so the list shows something right away.
+ * A query is cancelled from the activity when it goes away; the cursor walk
+ * stops at the next row and nothing more is delivered.
+ */
+public class QueryExecutor {
+	public interface RowReader<T> {
+		/* Returns the item for the current row, or null to skip it. */
+		T read(Cursor c);
+	}
+
+	/* Opens what it needs and runs the query; called on the query thread. */
+	public interface Statement {
+		Cursor query();
+	}
+
+	public interface Receiver<T> {
+		void onRows(ArrayList<T> rows);
+		void onDone();
+		void onError(Exception e);
+	}
+
+	public static class Query {
+		private volatile boolean cancelled = false;
+
+		public void cancel(){
+			cancelled = true;
+		}
+
+		public boolean isCancelled(){
+			return cancelled;
+		}
+	}
+
+	private static final int FIRST_BATCH = 30;
+	private static final int BATCH = 300;
+	private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+	private static final Handler handler = new Handler(Looper.getMainLooper());
+
+	public static <T> Query execute(final Statement statement, final RowReader<T> reader, final Receiver<T> receiver){
+		final Query query = new Query();
+		executor.execute(new Runnable(){
+			public void run(){
+				if(query.isCancelled())
+					return;
+				try{
+					Cursor c = statement.query();
+					try{
+						ArrayList<T> rows = new ArrayList<T>();
+						int batch = FIRST_BATCH;
+						c.moveToFirst();
+						while(!c.isAfterLast() && !query.isCancelled()){
+							T row = reader.read(c);
+							if(row != null)
+								rows.add(row);
+							if(rows.size() >= batch){
+								deliver(query, receiver, rows);
+								rows = new ArrayList<T>();
+								batch = BATCH;
+							}
+							c.moveToNext();
+						}
+						deliver(query, receiver, rows);
+					}
+					finally{
+						c.close();
+					}
+					post(query, new Runnable(){
+						public void run(){
+							receiver.onDone();
+						}
+					});
+				}
+				catch(final Exception e){
+					post(query, new Runnable(){
+						public void run(){
+							receiver.onError(e);
+						}
+					});
+				}
+			}
+		});
+		return query;
+	}
+
+	/*
+	 * Closes db once the queries queued before this call are done with it.
+	 */
+	public static void close(final SQLiteDatabase db){
+		if(db == null)
+			return;
+		executor.execute(new Runnable(){
+			public void run(){
+				db.close();
+			}
+		});
+	}
+
+	private static <T> void deliver(Query query, final Receiver<T> receiver, final ArrayList<T> rows){
+		if(rows.isEmpty())
+			return;
+		post(query, new Runnable(){
+			public void run(){
+				receiver.onRows(rows);
+			}
+		});
+	}
+
+	private static void post(final Query query, final Runnable runnable){
+		handler.post(new Runnable(){
+			public void run(){
+				if(!query.isCancelled())
+					runnable.run();
+			}
+		});
+	}
+}
@@ -0,0 +1,135 @@
+package org.nstamato.bansheeremote;
+
+/*
+BansheeRemote
+
+Copyright (C) 2011 Nikitas Stamatopoulos
+
+Permission is hereby granted, free of charge, to any person obtaining
+a copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+
+/*
+ * The binary protocol spoken after a "frames/<version>" handshake, which
+ * the server answers with MAGIC and the version it picked. Every message
+ * is the int32 length of the rest, the int32 id of the request it answers
+ * (0 for pushed events) and typed fields: 's' is an int32 length and UTF-8
+ * text, 'i' an int64 and 'b' an int32 length and raw bytes. All integers
+ * are big-endian, which is what DataInputStream reads.
+ */
+public class RemoteFrame {
+	public static final String MAGIC = "BRP";
+	public static final int VERSION = 1;
+	public static final int MAX_LENGTH = 64 * 1024 * 1024;
+
+	/* A request: its id followed by the given strings. */
+	public static byte[] encode(int id, String[] fields) throws IOException{
+		BufferPool.Buffer frame = BufferPool.acquire();
+		try{
+			encode(id, fields, frame);
+			return frame.toByteArray();
+		}
+		finally{
+			BufferPool.release(frame);
+		}
+	}
+
+	/* Encodes a request into the end of frame, which should be empty. */
+	public static void encode(int id, String[] fields, BufferPool.Buffer frame) throws IOException{
+		int start = frame.size();
+		DataOutputStream out = new DataOutputStream(frame);
+		out.writeInt(0);
+		out.writeInt(id);
+		for(String field : fields){
+			byte[] value = (field == null ? "" : field).getBytes("UTF-8");
+			out.writeByte('s');
+			out.writeInt(value.length);
+			out.write(value);
+		}
+		out.flush();
+		byte[] encoded = frame.array();
+		int length = frame.size() - start - 4;
+		encoded[start] = (byte)(length >>> 24);
+		encoded[start + 1] = (byte)(length >>> 16);
+		encoded[start + 2] = (byte)(length >>> 8);
+		encoded[start + 3] = (byte)length;
+	}
+
+	/* Reads the length that starts a frame whose first byte was already read. */
+	public static int readLength(int first, DataInputStream is) throws IOException{
+		if(first < 0)
+			throw new IOException("Connection closed by server");
+		int length = (first << 24) | (is.readUnsignedByte() << 16) | (is.readUnsignedByte() << 8) | is.readUnsignedByte();
+		if(length < 4 || length > MAX_LENGTH)
+			throw new IOException("Bad frame length " + length);
+		return length;
+	}
+
+	/*
+	 * Reads one field and writes its value to out, strings and bytes as
+	 * they are and integers in decimal. Returns the number of bytes of the
+	 * frame it used up.
+	 */
+	public static int readField(DataInputStream is, OutputStream out, byte[] buffer) throws IOException{
+		int tag = is.readUnsignedByte();
+		if(tag == 'i'){
+			out.write(Long.toString(is.readLong()).getBytes("UTF-8"));
+			return 9;
+		}
+		if(tag != 's' && tag != 'b')
+			throw new IOException("Unknown field type " + tag);
+		int size = is.readInt();
+		if(size < 0 || size > MAX_LENGTH)
+			throw new IOException("Bad field length " + size);
+		int remaining = size;
+		while(remaining > 0){
+			int len = is.read(buffer, 0, Math.min(buffer.length, remaining));
+			if(len < 0)
+				throw new IOException("Connection closed during a frame");
+			out.write(buffer, 0, len);
+			remaining -= len;
+		}
+		return 5 + size;
+	}
+
+	/* Reads every field left in a frame as text. */
+	public static String[] readFields(DataInputStream is, int remaining, byte[] buffer) throws IOException{
+		ArrayList<String> fields = new ArrayList<String>();
+		BufferPool.Buffer field = BufferPool.acquire();
+		try{
+			while(remaining > 0){
+				field.reset();
+				remaining -= readField(is, field, buffer);
+				fields.add(field.toString("UTF-8"));
+			}
+		}
+		finally{
+			BufferPool.release(field);
+		}
+		if(remaining < 0)
+			throw new IOException("Field runs past the end of its frame");
+		return fields.toArray(new String[fields.size()]);
+	}
+}
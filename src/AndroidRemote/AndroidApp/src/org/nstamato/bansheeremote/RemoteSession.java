@@ -0,0 +1,448 @@
+package org.nstamato.bansheeremote;
+
+/*
+BansheeRemote
+
+Copyright (C) 2011 Nikitas Stamatopoulos
+
+Permission is hereby granted, free of charge, to any person obtaining
+a copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/*
+ * One long lived connection to the Banshee server, shared by any number of
+ * requests. The connection first asks for the binary protocol of
+ * RemoteFrame; a server that predates it just drops the connection, and
+ * the session falls back to the "session/" text protocol, where requests
+ * are "<id> <action>/<params>\n" and replies "<id> <length>\n<body>".
+ *
+ * Connecting gives up after CONNECT_TIMEOUT and a reply that stalls for
+ * READ_TIMEOUT fails. A call that fails before its request could have
+ * reached the server is tried up to ATTEMPTS times with a growing pause;
+ * commands that change the player are never sent twice. Calls stop going
+ * out at all while the CircuitBreaker is open. A connection left unused
+ * for IDLE_LIMIT is replaced before the next call rather than reused.
+ */
+public class RemoteSession {
+	public static final int CONNECT_TIMEOUT = 5000;
+	public static final int READ_TIMEOUT = 15000;
+	private static final int ATTEMPTS = 3;
+	private static final int BACKOFF = 250;
+	/* Well below the 10 minutes after which the server ends a quiet session. */
+	private static final long IDLE_LIMIT = 5 * 60 * 1000;
+	private static final HashMap<String, RemoteSession> sessions = new HashMap<String, RemoteSession>();
+	/* Actions that only read, so running one twice does no harm. */
+	private static final HashSet<String> reads = new HashSet<String>(Arrays.asList(
+		"test", "all", "status", "album", "artist", "title", "trackCurrentTime", "trackTotalTime",
+		"coverExists", "coverImage", "prefetch", "prefetchCover", "syncCount", "syncManifest", "syncChunk", "syncDelta"));
+
+	private final String server;
+	private final int port;
+	private Socket s;
+	private OutputStream os;
+	private DataInputStream is;
+	private int nextId = 1;
+	private long lastUsed;
+	private boolean framed;
+	private boolean requestSent, replyStarted;
+	private final CircuitBreaker breaker = new CircuitBreaker(new CircuitBreaker.Probe(){
+		public void run() throws IOException{
+			probe();
+		}
+	});
+	private byte[] streamBuff = new byte[8000];
+
+	private RemoteSession(String server, int port){
+		this.server = server;
+		this.port = port;
+	}
+
+	public static synchronized RemoteSession get(String server, int port){
+		String key = server + ':' + port;
+		RemoteSession session = sessions.get(key);
+		if(session == null){
+			session = new RemoteSession(server, port);
+			sessions.put(key, session);
+		}
+		return session;
+	}
+
+	public String getServer(){
+		return server;
+	}
+
+	public int getPort(){
+		return port;
+	}
+
+	public CircuitBreaker getBreaker(){
+		return breaker;
+	}
+
+	/* A socket to server:port with the connect and read timeouts set. */
+	public static Socket open(String server, int port) throws IOException{
+		Socket socket = new Socket();
+		try{
+			socket.connect(new InetSocketAddress(server, port), CONNECT_TIMEOUT);
+			socket.setSoTimeout(READ_TIMEOUT);
+			socket.setTcpNoDelay(true);
+		}
+		catch(IOException e){
+			socket.close();
+			throw e;
+		}
+		return socket;
+	}
+
+	public void test() throws IOException{
+		request("test", null);
+	}
+
+	public void sendCommand(String action, String params) throws IOException{
+		request(action, params);
+	}
+
+	public String getInfo(String action, String params) throws IOException{
+		BufferPool.Buffer body = BufferPool.acquire();
+		try{
+			request(action, params, body);
+			return body.toString("UTF-8");
+		}
+		finally{
+			BufferPool.release(body);
+		}
+	}
+
+	/*
+	 * The fields of a reply. Over the text protocol that is the reply split
+	 * on '/', which is how "all" used to separate its values.
+	 */
+	public String[] getFields(String action, String params) throws IOException{
+		breaker.check();
+		for(int attempt=1;;attempt++){
+			IOException failure;
+			long delay;
+			synchronized(this){
+				boolean reused = (s != null);
+				try{
+					String fields[] = fields(action, params);
+					breaker.succeeded();
+					return fields;
+				}
+				catch(IOException e){
+					failure = e;
+					delay = retryOrThrow(action, e, reused, attempt);
+				}
+			}
+			pause(delay, failure);
+		}
+	}
+
+	public byte[] request(String action, String params) throws IOException{
+		BufferPool.Buffer body = BufferPool.acquire();
+		try{
+			request(action, params, body);
+			return body.toByteArray();
+		}
+		finally{
+			BufferPool.release(body);
+		}
+	}
+
+	/* Streams the reply body into sink and returns its length. */
+	public long request(String action, String params, OutputStream sink) throws IOException{
+		breaker.check();
+		for(int attempt=1;;attempt++){
+			IOException failure;
+			long delay;
+			synchronized(this){
+				boolean reused = (s != null);
+				try{
+					long length = exchange(action, params, sink);
+					breaker.succeeded();
+					return length;
+				}
+				catch(IOException e){
+					failure = e;
+					delay = retryOrThrow(action, e, reused, attempt);
+				}
+			}
+			pause(delay, failure);
+		}
+	}
+
+	public synchronized void close(){
+		disconnect();
+		breaker.reset();
+	}
+
+	public static synchronized void closeAll(){
+		for(RemoteSession session : sessions.values())
+			session.close();
+		sessions.clear();
+	}
+
+	/*
+	 * Decides what a failed attempt means. A request that never went out
+	 * is safe to repeat. One that did may already have run on the server,
+	 * so it is only repeated if it just reads and nothing of the reply has
+	 * arrived yet, on a reused connection the server may have dropped
+	 * while idle, unless the server just didn't answer in time. Anything
+	 * else, or running out of attempts, counts against the breaker and is
+	 * thrown. Returns how long to pause before the next attempt; the pause
+	 * is taken outside the session's lock, so other calls go ahead.
+	 */
+	private long retryOrThrow(String action, IOException e, boolean reused, int attempt) throws IOException{
+		disconnect();
+		boolean stale = reused && !replyStarted && !(e instanceof SocketTimeoutException) && reads.contains(action);
+		if(attempt >= ATTEMPTS || !(stale || !requestSent)){
+			breaker.failed();
+			throw e;
+		}
+		// a stale connection is retried right away, an unreachable server after a pause
+		return !stale || attempt > 1 ? BACKOFF << (attempt - 1) : 0;
+	}
+
+	private static void pause(long delay, IOException e) throws IOException{
+		if(delay <= 0)
+			return;
+		try{
+			Thread.sleep(delay);
+		}
+		catch(InterruptedException ie){
+			throw e;
+		}
+	}
+
+	/* Asks for "test" over the one-shot protocol, without touching the session. */
+	private void probe() throws IOException{
+		Socket probe = open(server, port);
+		try{
+			OutputStream out = probe.getOutputStream();
+			out.write("test/".getBytes());
+			out.flush();
+			while(probe.getInputStream().read() >= 0);
+		}
+		finally{
+			probe.close();
+		}
+	}
+
+	private String[] fields(String action, String params) throws IOException{
+		requestSent = false;
+		replyStarted = false;
+		connect();
+		if(!framed){
+			BufferPool.Buffer body = BufferPool.acquire();
+			try{
+				exchange(action, params, body);
+				// keep trailing empty fields, like an empty cover hash
+				return body.toString("UTF-8").split("/", -1);
+			}
+			finally{
+				BufferPool.release(body);
+			}
+		}
+		int remaining = send(action, params);
+		return RemoteFrame.readFields(is, remaining, streamBuff);
+	}
+
+	private long exchange(String action, String params, OutputStream sink) throws IOException{
+		requestSent = false;
+		replyStarted = false;
+		connect();
+		if(framed){
+			int remaining = send(action, params);
+			CountingStream counted = new CountingStream(sink);
+			while(remaining > 0)
+				remaining -= RemoteFrame.readField(is, counted, streamBuff);
+			if(remaining < 0)
+				throw new IOException("Field runs past the end of its frame");
+			return counted.count;
+		}
+		int id = nextId++;
+		String formattedAction = id + " " + action + '/' + (params == null ? "" : params) + '\n';
+		byte[] request = formattedAction.getBytes("UTF-8");
+		requestSent = true;
+		os.write(request, 0, request.length);
+		os.flush();
+
+		String header[] = readLine().split(" ");
+		long remaining;
+		try{
+			if(header.length != 2 || Integer.parseInt(header[0]) != id)
+				throw new IOException("Unexpected reply header for request " + id);
+			remaining = Long.parseLong(header[1]);
+		}
+		catch(NumberFormatException e){
+			throw new IOException("Malformed reply header for request " + id);
+		}
+		long length = remaining;
+		replyStarted = true;
+		while(remaining > 0){
+			int len = is.read(streamBuff, 0, (int)Math.min(streamBuff.length, remaining));
+			if(len < 0)
+				throw new IOException("Connection closed during reply " + id);
+			sink.write(streamBuff, 0, len);
+			remaining -= len;
+		}
+		return length;
+	}
+
+	/*
+	 * Writes a framed request and reads the header of its reply, returning
+	 * the number of bytes of fields that follow.
+	 */
+	private int send(String action, String params) throws IOException{
+		int id = nextId++;
+		BufferPool.Buffer frame = BufferPool.acquire();
+		try{
+			RemoteFrame.encode(id, new String[]{action, params}, frame);
+			requestSent = true;
+			os.write(frame.array(), 0, frame.size());
+		}
+		finally{
+			BufferPool.release(frame);
+		}
+		os.flush();
+		int length = RemoteFrame.readLength(is.read(), is);
+		if(is.readInt() != id)
+			throw new IOException("Unexpected reply for request " + id);
+		replyStarted = true;
+		return length - 4;
+	}
+
+	private void connect() throws IOException{
+		long now = System.currentTimeMillis();
+		if(s != null && now - lastUsed > IDLE_LIMIT)
+			disconnect();
+		lastUsed = now;
+		if(s != null)
+			return;
+		if(connectFramed())
+			return;
+		try{
+			s = open(server, port);
+			os = s.getOutputStream();
+			is = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+			String command = "session/";
+			os.write(command.getBytes(), 0, command.length());
+			os.flush();
+			if(!readLine().startsWith("session"))
+				throw new IOException("Server does not support sessions");
+		}
+		catch(IOException e){
+			disconnect();
+			throw e;
+		}
+	}
+
+	/*
+	 * Asks for the binary protocol. Returns false if the server closed the
+	 * connection instead of answering; only that connection falls back to
+	 * text, the next one asks again, so a server that was just restarting
+	 * isn't kept on the text protocol.
+	 */
+	private boolean connectFramed() throws IOException{
+		try{
+			s = open(server, port);
+			os = s.getOutputStream();
+			is = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+			String command = "frames/" + RemoteFrame.VERSION;
+			os.write(command.getBytes(), 0, command.length());
+			os.flush();
+			byte[] handshake = new byte[RemoteFrame.MAGIC.length() + 1];
+			int length = 0;
+			int len;
+			while(length < handshake.length && (len = is.read(handshake, length, handshake.length - length)) > 0)
+				length += len;
+			if(length == 0){
+				disconnect();
+				return false;
+			}
+			if(length < handshake.length || !new String(handshake, 0, RemoteFrame.MAGIC.length(), "US-ASCII").equals(RemoteFrame.MAGIC))
+				throw new IOException("Unexpected handshake from server");
+			framed = true;
+			return true;
+		}
+		catch(IOException e){
+			disconnect();
+			throw e;
+		}
+	}
+
+	private void disconnect(){
+		try{
+			if(s != null)
+				s.close();
+		}
+		catch(IOException e){
+		}
+		s = null;
+		os = null;
+		is = null;
+		framed = false;
+	}
+
+	private static class CountingStream extends OutputStream {
+		private final OutputStream out;
+		long count = 0;
+
+		CountingStream(OutputStream out){
+			this.out = out;
+		}
+
+		public void write(int b) throws IOException{
+			out.write(b);
+			count++;
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException{
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+
+	private String readLine() throws IOException{
+		BufferPool.Buffer line = BufferPool.acquire();
+		try{
+			int b;
+			while((b = is.read()) != '\n'){
+				if(b < 0)
+					throw new IOException("Connection closed by server");
+				line.write(b);
+			}
+			return line.toString("UTF-8");
+		}
+		finally{
+			BufferPool.release(line);
+		}
+	}
+}
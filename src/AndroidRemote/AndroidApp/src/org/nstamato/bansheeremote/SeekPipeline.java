@@ -0,0 +1,113 @@
+package org.nstamato.bansheeremote;
+
+/*
+BansheeRemote
+
+Copyright (C) 2011 Nikitas Stamatopoulos
+
+Permission is hereby granted, free of charge, to any person obtaining
+a copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+import android.os.Handler;
+
+/*
+ * Sends the seeks of a seekbar drag as USER commands of the
+ * CommandExecutor. Only the latest target is kept, at most one seek is
+ * queued or in flight, and at most SEEKS_PER_SECOND seeks reach the server
+ * while the user drags; positions that were overtaken by a newer one
+ * before their turn are dropped. finish() sends the final position as
+ * soon as the seek in flight is done, whatever the rate. Must be used from
+ * the UI thread.
+ */
+public class SeekPipeline {
+	public static final int SEEKS_PER_SECOND = 4;
+	private static final long INTERVAL = 1000 / SEEKS_PER_SECOND;
+
+	private final Handler handler = new Handler();
+	private RemoteSession session;
+	private int target = -1;
+	private boolean urgent = false, scheduled = false, sending = false;
+	private long lastSent = 0;
+
+	private final Runnable send = new Runnable(){
+		public void run(){
+			scheduled = false;
+			sendNext();
+		}
+	};
+
+	/* Asks for a seek to position, in seconds, once the rate allows it. */
+	public void seek(RemoteSession session, int position){
+		this.session = session;
+		this.target = position;
+		sendNext();
+	}
+
+	/* Seeks to the position the drag ended at without waiting. */
+	public void finish(RemoteSession session, int position){
+		urgent = true;
+		seek(session, position);
+	}
+
+	public void close(){
+		handler.removeCallbacks(send);
+		scheduled = false;
+		target = -1;
+	}
+
+	/* Submits the target if the rate allows it, or comes back when it does. */
+	private void sendNext(){
+		if(sending || target < 0)
+			return;
+		long wait = urgent ? 0 : lastSent + INTERVAL - System.currentTimeMillis();
+		if(wait > 0){
+			if(!scheduled){
+				scheduled = true;
+				handler.postDelayed(send, wait);
+			}
+			return;
+		}
+		handler.removeCallbacks(send);
+		scheduled = false;
+		final String position = Integer.toString(target);
+		target = -1;
+		urgent = false;
+		lastSent = System.currentTimeMillis();
+		sending = true;
+		CommandExecutor.submit(session, CommandExecutor.USER, new CommandExecutor.Call<Void>(){
+			public Void run(RemoteSession session) throws Exception{
+				session.sendCommand("seek", position);
+				return null;
+			}
+		}, new CommandExecutor.Callback<Void>(){
+			public void onResult(Void result){
+				done();
+			}
+			public void onError(Exception e){
+				done();
+			}
+		});
+	}
+
+	private void done(){
+		sending = false;
+		sendNext();
+	}
+}
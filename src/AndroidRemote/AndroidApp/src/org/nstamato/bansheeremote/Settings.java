@@ -25,8 +25,6 @@ OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
 WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 */
 
-import java.io.OutputStream;
-import java.net.Socket;
 
 import android.app.Activity;
 import android.content.Intent;
@@ -58,34 +56,20 @@ public class Settings extends Activity {
 			public void onClick(View v) {
 				EditText iptext = (EditText)findViewById(R.id.ip);
 		        EditText porttext = (EditText)findViewById(R.id.port);
-				String ip = iptext.getText().toString();
-				Socket s;
-				OutputStream os;
-				String command = "test/";
-				boolean canConnect = false;
-				int port=Integer.parseInt(porttext.getText().toString());
-	    		try 
-	    		{
-	    			s = new Socket(ip,port); 
-	    			os = s.getOutputStream();
-	    			os.write(command.getBytes(), 0, command.length());
-	    			s.close();
-	   				os.close();
-	 				canConnect = true;
-	 			} 
-	    		catch(Exception e) 
-	    		{
-	  				canConnect = false;
-	   				Toast.makeText(Settings.this,"Can't connect to Server. Check your settings.",Toast.LENGTH_SHORT).show();
-	   			}
-				
-				if(canConnect){
-					Intent response = new Intent();
-					response.putExtra("ip",ip);
-					response.putExtra("port", port);
-					setResult(RESULT_OK,response);
-					finish();
-				}
+				final String ip = iptext.getText().toString();
+				final int port=Integer.parseInt(porttext.getText().toString());
+				CommandExecutor.test(RemoteSession.get(ip,port),Settings.this,new CommandExecutor.Callback<String>(){
+					public void onResult(String result){
+						Intent response = new Intent();
+						response.putExtra("ip",ip);
+						response.putExtra("port", port);
+						setResult(RESULT_OK,response);
+						finish();
+					}
+					public void onError(Exception e){
+		   				Toast.makeText(Settings.this,"Can't connect to Server. Check your settings.",Toast.LENGTH_SHORT).show();
+					}
+				});
 			}
         	
         });
@@ -24,30 +24,65 @@ OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
 WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 */
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 
 import android.content.Context;
+import android.os.SystemClock;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.BaseAdapter;
 import android.widget.TextView;
 
+/*
+ * Pages the songs of a query in windows of WINDOW rows instead of reading
+ * them all up front. The adapter is created with the number of tracks of
+ * the album; a window is loaded from the Library the first time one of its
+ * rows is shown, its rows show up blank until it arrives, and windows far
+ * from the visible position are dropped so at most MAX_WINDOWS of them stay
+ * in memory. A window that failed to load isn't asked for again until
+ * RETRY_DELAY has passed, so redrawing its blank rows doesn't flood the
+ * Library with queries.
+ */
 public class SongBaseAdapter extends BaseAdapter {
-	 private static ArrayList<SongListItem> songList;
+	 private static final int WINDOW = 100;
+	 private static final int MAX_WINDOWS = 5;
+	 private static final long RETRY_DELAY = 5000;
+
+	 private final HashMap<Integer, ArrayList<SongListItem>> windows = new HashMap<Integer, ArrayList<SongListItem>>();
+	 private final HashMap<Integer, QueryExecutor.Query> loading = new HashMap<Integer, QueryExecutor.Query>();
+	 // when each failed window may be tried again
+	 private final HashMap<Integer, Long> failed = new HashMap<Integer, Long>();
+	 private final SongListItem placeholder = new SongListItem();
+	 private final int albumId;
+	 private final int count;
 	 
 	 private LayoutInflater mInflater;
 
-	 public SongBaseAdapter(Context context, ArrayList<SongListItem> songs) {
-	  songList = songs;
+	 public SongBaseAdapter(Context context, int albumId, int count) {
+	  this.albumId = albumId;
+	  this.count = count;
 	  mInflater = LayoutInflater.from(context);
 	 }
 
+	 /* Stops loading any window that hasn't arrived yet. */
+	 public void cancel() {
+	  for(QueryExecutor.Query pending : loading.values())
+		  pending.cancel();
+	  loading.clear();
+	 }
+
 	 public int getCount() {
-	  return songList.size();
+	  return count;
 	 }
 
 	 public Object getItem(int position) {
-	  return songList.get(position);
+	  ArrayList<SongListItem> window = windowFor(position);
+	  int offset = position % WINDOW;
+	  if(window == null || offset >= window.size())
+		  return placeholder;
+	  return window.get(offset);
 	 }
 
 	 public long getItemId(int position) {
@@ -70,13 +105,57 @@ public class SongBaseAdapter extends BaseAdapter {
 	   holder = (ViewHolder) convertView.getTag();
 	  }
 	  
-	  holder.songName.setText(songList.get(position).getSongName());
-	  holder.artist.setText(songList.get(position).getArtist());
+	  SongListItem song = (SongListItem)getItem(position);
+	  holder.songName.setText(song.getSongName());
+	  holder.artist.setText(song.getArtist());
 
 	  return convertView;
 	 }
 
-	 public class ViewHolder {
+	 private ArrayList<SongListItem> windowFor(int position) {
+	  final int index = position / WINDOW;
+	  ArrayList<SongListItem> window = windows.get(index);
+	  if(window != null || loading.containsKey(index))
+		  return window;
+	  Long retry = failed.get(index);
+	  if(retry != null && SystemClock.uptimeMillis() < retry)
+		  return null;
+	  failed.remove(index);
+	  final ArrayList<SongListItem> rows = new ArrayList<SongListItem>(WINDOW);
+	  QueryExecutor.Query pending = Library.get().tracks(albumId, index*WINDOW, WINDOW, new QueryExecutor.Receiver<SongListItem>(){
+		  public void onRows(ArrayList<SongListItem> batch){
+			  rows.addAll(batch);
+		  }
+		  public void onDone(){
+			  loading.remove(index);
+			  windows.put(index, rows);
+			  evict(index);
+			  notifyDataSetChanged();
+		  }
+		  public void onError(Exception e){
+			  loading.remove(index);
+			  failed.put(index, SystemClock.uptimeMillis() + RETRY_DELAY);
+		  }
+	  });
+	  loading.put(index, pending);
+	  return null;
+	 }
+
+	 // forget the windows furthest from the one the list is showing now
+	 private void evict(int index) {
+	  while(windows.size() > MAX_WINDOWS){
+		  Integer furthest = null;
+		  Iterator<Integer> keys = windows.keySet().iterator();
+		  while(keys.hasNext()){
+			  Integer key = keys.next();
+			  if(furthest == null || Math.abs(key - index) > Math.abs(furthest - index))
+				  furthest = key;
+		  }
+		  windows.remove(furthest);
+	  }
+	 }
+
+	 public static class ViewHolder {
 	  TextView songName;
 	  TextView artist;
 	 }
@@ -25,17 +25,12 @@ OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
 WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 */
 
-import java.io.File;
 import java.util.ArrayList;
 
 import android.app.Activity;
 import android.content.Intent;
-import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.os.Bundle;
-import android.os.Environment;
-import android.util.Log;
 import android.view.View;
 import android.widget.AdapterView;
 import android.widget.ImageView;
@@ -45,17 +40,12 @@ import android.widget.Toast;
 import android.widget.AdapterView.OnItemClickListener;
 
 public class SongBrowse extends Activity{
-	ArrayList<SongListItem> songList;
 	//ArrayList<String> trackIdList;
     SongBaseAdapter songListAdapter; 
-    final String filenameDB = "banshee.db";
-    SQLiteDatabase bansheeDB;
     public int albumID;
     public ImageView icon;
     public TextView title;
-    public Cursor c;
-    public String[] params = null;
-    public String query;
+    QueryExecutor.Query countQuery;
     
     protected void onActivityResult(int requestCode, int resultCode, Intent data){
 		super.onActivityResult(requestCode, resultCode, data);
@@ -73,8 +63,6 @@ public class SongBrowse extends Activity{
         this.title = (TextView)this.findViewById(R.id.title);
         this.title.setText(titleText);
         this.icon.setImageResource(R.drawable.songs);
-        this.songList = new ArrayList<SongListItem>();
-        this.songListAdapter = new SongBaseAdapter(this,songList);
         //this.trackIdList = new ArrayList<Integer>();
         //this.songListAdapter = new ArrayAdapter<String>(this,R.layout.list_item,songList);
         //this.header = new ArrayList<String>();
@@ -83,77 +71,20 @@ public class SongBrowse extends Activity{
         //setListAdapter(headerAdapter);
         //setListAdapter(songListAdapter);
         final ListView l = (ListView) findViewById(R.id.songBrowse);
-        l.setAdapter(songListAdapter);
 		l.setTextFilterEnabled(true);
 		l.setFastScrollEnabled(true);
-        File db = null;
-		try{ 
-			//db = getFileStreamPath(filenameDB);
-			db = Environment.getExternalStorageDirectory();
-			String path = db.getAbsolutePath()+'/'+filenameDB;
-			bansheeDB = SQLiteDatabase.openDatabase(path, null, SQLiteDatabase.NO_LOCALIZED_COLLATORS);
-			query = "SELECT CoreTracks.Title AS trackTitle, CoreTracks.Uri,  CoreArtists.Name, CoreAlbums.Title FROM CoreTracks,CoreAlbums,CoreArtists WHERE CoreTracks.AlbumID==CoreAlbums.AlbumID AND CoreTracks.ArtistID==CoreArtists.ArtistID";
-			
-			if(albumID>=0){
-				query+=" AND CoreTracks.AlbumID=?";
-				params = new String[]{String.valueOf(albumID)};
-				query+=" ORDER BY CoreTracks.TrackNumber";
-			}
-			else{
-				query+=" ORDER BY CoreTracks.Title";
-			}
-			//Thread queryDB = new Thread(new Runnable(){
-				//public void run(){
-					c = bansheeDB.rawQuery(query,params);
-					int name = c.getColumnIndex("trackTitle");
-					int artist = c.getColumnIndex("CoreArtists.Name");
-					int albumColumnIndex = c.getColumnIndex("CoreAlbums.Title");
-					int uriColumnIndex = c.getColumnIndex("CoreTracks.Uri");
-					Log.i("banshee","coretrack title index "+name+" corealbum title index "+albumColumnIndex+" number of columns "+c.getColumnCount());
-					for(int i=0;i<c.getColumnCount();i++){
-						Log.i("banshee",c.getColumnName(i));
-					}
-					//int albumColumnIndex = c.getColumnIndex("CoreAlbums.Title");
-					//int trackIdColumn = c.getColumnIndex("TrackID");
-					//int count = c.getCount();
-					c.moveToFirst();
-					while(c.isAfterLast()==false){
-						SongListItem songItem = new SongListItem();
-						String songName = c.getString(name);
-						String artistName = c.getString(artist);
-						String albumName = c.getString(albumColumnIndex);
-						String uri = c.getString(uriColumnIndex);
-						String combination = "";
-						songItem.setSongName(songName);
-						if(artistName!=null){
-							combination+=artistName;
-							if(albumName!=null)
-								combination+='/'+albumName;
-						}	
-						else{
-							combination+="Unknown Artist";
-							if(albumName!=null)
-								combination+='/'+albumName;
-						}
-						songItem.setUri(uri);
-						songItem.setArtist(combination);
-						//String trackID = c.getString(trackIdColumn);
-						if(songName!=null){
-							songList.add(songItem);
-							//trackIdList.add(c.getString(trackIdColumn));
-						}
-						c.moveToNext();
-						//artistList.add("hello");
-					}
-					c.close();
-				//}
-			//});
-			//queryDB.start();
-			//int columnCount = c.getColumnCount();
-			
-			//artistList.add("hello");
-			//Toast.makeText(this,result,Toast.LENGTH_SHORT).show();
-			//String result = c.getString(name);
+		try{
+			countQuery = Library.get().trackCount(albumID,new QueryExecutor.Receiver<Integer>(){
+				public void onRows(ArrayList<Integer> rows){
+					songListAdapter = new SongBaseAdapter(SongBrowse.this,albumID,rows.get(0));
+					l.setAdapter(songListAdapter);
+				}
+				public void onDone(){
+				}
+				public void onError(Exception e){
+					Toast.makeText(SongBrowse.this,e.getMessage(),Toast.LENGTH_SHORT).show();
+				}
+			});
 		}catch(SQLiteException e){
 			Toast.makeText(this,e.getMessage(),Toast.LENGTH_SHORT).show();
 			//Toast.makeText(this,"Something went wrong. Make sure the banshee database file is on your sd-card.",Toast.LENGTH_LONG).show();
@@ -167,6 +98,8 @@ public class SongBrowse extends Activity{
 	         public void onItemClick(AdapterView<?> a, View v, int position, long id) { 
 	          Object o = l.getItemAtPosition(position);
 	          SongListItem song = (SongListItem)o;
+	          if(song.getUri()==null || song.getUri().length()==0)
+	        	  return;
 	          Intent response = new Intent();
 	      	  response.putExtra("Uri",song.getUri());
 	      	  setResult(RESULT_OK,response);
@@ -174,6 +107,13 @@ public class SongBrowse extends Activity{
 	          }  
 		});
     }
+	protected void onDestroy(){
+		super.onDestroy();
+		if(countQuery!=null)
+			countQuery.cancel();
+		if(songListAdapter!=null)
+			songListAdapter.cancel();
+	}
 	/*public boolean onKeyDown(int keyCode, KeyEvent event) {
 	    if ((keyCode == KeyEvent.KEYCODE_BACK)) {
 	        //Log.d(this.getClass().getName(), "back button pressed");
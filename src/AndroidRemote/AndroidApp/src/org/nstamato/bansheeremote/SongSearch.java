@@ -0,0 +1,135 @@
+package org.nstamato.bansheeremote;
+
+/*
+BansheeRemote
+
+Copyright (C) 2011 Nikitas Stamatopoulos
+
+Permission is hereby granted, free of charge, to any person obtaining
+a copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+import java.util.ArrayList;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.database.sqlite.SQLiteException;
+import android.os.Bundle;
+import android.os.Handler;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.view.View;
+import android.widget.AdapterView;
+import android.widget.EditText;
+import android.widget.ImageView;
+import android.widget.ListView;
+import android.widget.TextView;
+import android.widget.Toast;
+import android.widget.AdapterView.OnItemClickListener;
+
+/*
+ * Searches the synced library as the user types. Each change of the query
+ * waits SEARCH_DELAY ms for more typing, then cancels the previous search
+ * and asks the Library for the best RESULTS matches.
+ */
+public class SongSearch extends Activity{
+	private static final int SEARCH_DELAY = 250;
+	private static final int RESULTS = 100;
+
+	ArrayList<SongListItem> songList;
+	SongListAdapter songListAdapter;
+	public ImageView icon;
+	public TextView title;
+	public EditText searchQuery;
+	QueryExecutor.Query pending;
+	private final Handler handler = new Handler();
+
+	private final Runnable search = new Runnable(){
+		public void run(){
+			if(pending!=null)
+				pending.cancel();
+			final String text = searchQuery.getText().toString();
+			if(text.trim().length()==0){
+				songList.clear();
+				songListAdapter.notifyDataSetChanged();
+				return;
+			}
+			try{
+				final ArrayList<SongListItem> results = new ArrayList<SongListItem>();
+				pending = Library.get().search(text,RESULTS,new QueryExecutor.Receiver<SongListItem>(){
+					public void onRows(ArrayList<SongListItem> rows){
+						results.addAll(rows);
+					}
+					public void onDone(){
+						songList.clear();
+						songList.addAll(results);
+						songListAdapter.notifyDataSetChanged();
+					}
+					public void onError(Exception e){
+						Toast.makeText(SongSearch.this,"Search isn't ready yet. Please sync your library.",Toast.LENGTH_LONG).show();
+					}
+				});
+			}
+			catch(SQLiteException e){
+				Toast.makeText(SongSearch.this,"Something went wrong. Make sure the banshee database file is on your sd-card.",Toast.LENGTH_LONG).show();
+			}
+		}
+	};
+
+	public void onCreate(Bundle savedInstanceState) {
+		super.onCreate(savedInstanceState);
+		setContentView(R.layout.song_search);
+		this.icon = (ImageView)this.findViewById(R.id.icon);
+		this.title = (TextView)this.findViewById(R.id.title);
+		this.title.setText("Search");
+		this.icon.setImageResource(R.drawable.songs);
+		this.songList = new ArrayList<SongListItem>();
+		this.songListAdapter = new SongListAdapter(this,songList);
+		final ListView l = (ListView) findViewById(R.id.searchResults);
+		l.setAdapter(songListAdapter);
+		this.searchQuery = (EditText)this.findViewById(R.id.searchQuery);
+		this.searchQuery.addTextChangedListener(new TextWatcher(){
+			public void afterTextChanged(Editable s){
+				handler.removeCallbacks(search);
+				handler.postDelayed(search,SEARCH_DELAY);
+			}
+			public void beforeTextChanged(CharSequence s, int start, int count, int after){
+			}
+			public void onTextChanged(CharSequence s, int start, int before, int count){
+			}
+		});
+
+		l.setOnItemClickListener(new OnItemClickListener(){
+			public void onItemClick(AdapterView<?> a, View v, int position, long id) {
+				SongListItem song = (SongListItem)l.getItemAtPosition(position);
+				Intent response = new Intent();
+				response.putExtra("Uri",song.getUri());
+				setResult(RESULT_OK,response);
+				finish();
+			}
+		});
+	}
+
+	protected void onDestroy(){
+		super.onDestroy();
+		handler.removeCallbacks(search);
+		if(pending!=null)
+			pending.cancel();
+	}
+}
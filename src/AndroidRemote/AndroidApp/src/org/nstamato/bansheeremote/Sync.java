@@ -25,12 +25,7 @@ OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
 WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 */
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.Socket;
 
 import android.app.Activity;
 import android.app.ProgressDialog;
@@ -38,7 +33,6 @@ import android.content.Intent;
 import android.content.res.Configuration;
 import android.database.sqlite.SQLiteException;
 import android.os.Bundle;
-import android.os.Environment;
 import android.os.Handler;
 import android.os.Message;
 import android.util.Log;
@@ -47,16 +41,17 @@ public class Sync extends Activity{
 public ProgressDialog pd;
 String server;
 int port;
-public final String filenameDB = "banshee.db";
-public static ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-public static byte[] byteBuff = new byte[1024];
+
+public final static int DONE = 0, PROGRESS = 1;
 
 private Handler dbHandler = new Handler() {
     @Override
     public void handleMessage(Message msg) {
-    	//int progress = msg.arg1;
-    	//pd.setProgress(progress);
-    	//if(progress>=100)
+    	if(msg.what==PROGRESS){
+    		pd.setMax(msg.arg2);
+    		pd.setProgress(msg.arg1);
+    	}
+    	else
             pd.dismiss();
             //tv.setText(pi_string);
 
@@ -72,15 +67,15 @@ private Handler dbHandler = new Handler() {
     }
 	
 	public void onConfigurationChanged(Configuration newConfig) {
+	  // the download thread keeps running across rotations
 	  super.onConfigurationChanged(newConfig);
-	  sync();
 	}
 	
 	
 	public void sync(){
 		pd = new ProgressDialog(this);
 		pd.setCancelable(true);
-		//pd.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+		pd.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
 		pd.setTitle("Syncing with Banshee...");
 		pd.setMessage("This might take some time, depending on your internet connection and your phone.");
 		pd.show();
@@ -89,67 +84,30 @@ private Handler dbHandler = new Handler() {
     		//String command="sync/";
     		public void run(){
 		    	try {
-		    		//String dbCount = getInfo("syncCount",null);
-		    		//int totalReceived = 0;
-		    		//int remainingBytes = getInfoInt("syncCount",null);
-		    		int chunksize=8000;//remainingBytes;
-		    		//int offset = 0;
-		    		//Log.i("banshee","bytes "+remainingBytes);
-		    		//Toast.makeText(main.this,"Bytes "+dbCount,Toast.LENGTH_SHORT).show();
-		    		byte[] dbbytes = null;
-		    		File root = Environment.getExternalStorageDirectory();
-		    		//Log.i("banshee","external directory "+root.getAbsolutePath());
-		    		FileOutputStream fstream = new FileOutputStream(new File(root,filenameDB));
-		    	    //FileOutputStream fstream = openFileOutput(filenameDB,Context.MODE_PRIVATE);
-		    	    dbbytes = new byte[chunksize];
-		    	    Socket s = new Socket(server,port);
-	    	    	OutputStream os = s.getOutputStream();
-	    	    	InputStream is = s.getInputStream();
-	    	    	String command = "sync/";
-	    	    	os.write(command.getBytes(), 0, command.length());
-	    	    	//Log.i("banshee","sent command");
-	    	    	int len=0;
-	    	    	while ( (len = is.read(dbbytes)) > 0 ) {
-	    	    		//Log.i("banshee","inside loop");
-	    	    		//is.read(dbbytes,0,chunksize);
-	    	            fstream.write(dbbytes,0,len);
-	    	            //totalReceived+=len;
-	    	            //int progress=totalReceived/remainingBytes*100;
-	    	            //Message progressMessage = new Message();
-	    	            //progressMessage.arg1=progress;
-	    	            //dbHandler.sendMessage(progressMessage);
-	    	       }
+		    		File dbFile = Library.get().file();
+		    		RemoteSession session = RemoteSession.get(server,port);
+		    		boolean synced = false;
+		    		if(dbFile.exists()){
+		    			try{
+		    				DeltaSync.sync(session,dbFile,new File(getCacheDir(),"banshee.delta"));
+		    				synced = true;
+		    			}
+		    			catch(Exception e){
+		    				Log.i("banshee","delta sync failed, fetching the whole library: "+e.getMessage());
+		    			}
+		    		}
+		    		if(!synced){
+		    			new ChunkedDownload(session,dbFile).run(new ChunkedDownload.ProgressListener(){
+		    				public void onProgress(int chunk, int chunks){
+		    					dbHandler.sendMessage(dbHandler.obtainMessage(PROGRESS,chunk,chunks));
+		    				}
+		    			});
+		    		}
 	    	    	
-		    	    /*while(remainingBytes>0){
-		    	    	Socket s = new Socket(server,port);
-		    	    	OutputStream os = s.getOutputStream();
-		    	    	InputStream is = s.getInputStream();
-		    	    	String offsetT = Integer.toString(offset);
-		    	    	String command = "sync/"+offsetT;
-		    	    	//String command = "sync/";
-		    	    	os.write(command.getBytes(), 0, command.length());
-		    	    	//if(remainingBytes>=chunksize){
-		    	    		//dbbytes = new byte[chunksize];
-		    	    		is.read(dbbytes,0,chunksize);
-		    	    		//if(rep==0){
-		    	    			//hash = Base64.encodeToString(dbbytes, 0, chunksize, Base64.DEFAULT);
-		    	    			//os.write(hash.getBytes(),0,chunksize);
-		    	    		//}
-		    	    		remainingBytes-=chunksize;
-		    	    		offset+=chunksize;
-		    	    	//}
-		    	    	//else{
-		    	    		//dbbytes = new byte[remainingBytes];
-		    	    		//is.read(dbbytes,0,remainingBytes);
-		    	    		//remainingBytes=0;
-		    	    	//}
-					//Toast.makeText(main.this,"hello "+dbCount,Toast.LENGTH_SHORT).show();
-		    	    	fstream.write(dbbytes);
-		    	    	s.close();
-		    	    	//rep++;
-		    	    }*/
-		    	    fstream.close();
-		    	    dbHandler.sendEmptyMessage(0);
+		    		LibraryIndexer.index(dbFile);
+		    		// the browse screens pick up the new copy on their next query
+		    		Library.get().reopen();
+		    	    dbHandler.sendEmptyMessage(DONE);
 		    	    Intent response = new Intent();
 					//response.putExtra("ip",ip);
 					//response.putExtra("port", port);
@@ -160,7 +118,7 @@ private Handler dbHandler = new Handler() {
 		    	   	} 
 		    	catch (java.lang.OutOfMemoryError e) {
 		    		Log.i("banshee","ran out of memory");
-		    		dbHandler.sendEmptyMessage(0);
+		    		dbHandler.sendEmptyMessage(DONE);
 		    		Intent response = new Intent();
 		    		setResult(RESULT_OK+2,response);
 		    		finish();
@@ -168,7 +126,7 @@ private Handler dbHandler = new Handler() {
 		    		
 		    	}
 		    	catch(SQLiteException e){
-		    		dbHandler.sendEmptyMessage(0);
+		    		dbHandler.sendEmptyMessage(DONE);
 		    		Intent response = new Intent();
 		    		setResult(RESULT_OK+1,response);
 		    		finish();
@@ -176,7 +134,7 @@ private Handler dbHandler = new Handler() {
 		    	}
 		    	
 		    	catch (Exception e) {
-		    		dbHandler.sendEmptyMessage(0);
+		    		dbHandler.sendEmptyMessage(DONE);
 		    		Intent response = new Intent();
 		    		setResult(RESULT_OK+1,response);
 		    		finish();
@@ -187,36 +145,4 @@ private Handler dbHandler = new Handler() {
 		getDB.start();
 		
 	}
-	public String getInfo(String action, String params) throws Exception{
-    	String data=null;
-    	String formattedAction = action+'/'+params;
-    		Socket s = new Socket(server,port);
-			OutputStream os = s.getOutputStream();
-			InputStream is =  s.getInputStream();
-			os.write(formattedAction.getBytes(), 0, formattedAction.length());
-			int byteCount = -1;
-			byteArrayOutputStream.reset();
-			while ((byteCount = is.read(byteBuff, 0, byteBuff.length)) != -1) {
-				byteArrayOutputStream.write(byteBuff, 0, byteCount);
-			}
-			data = byteArrayOutputStream.toString();
-		return data;
-    }
-	public int getInfoInt(String action,String params){
-    	int n=-1;
-    	boolean done=false;
-    	while(!done){
-	    	try{
-	    		n = Integer.parseInt(getInfo(action,params));
-	    		done=true;
-	    	}
-	    	catch(NumberFormatException e){
-	    		done=false;
-	    	}
-	    	catch(Exception e){
-	    		
-	    	}
-    	}
-		return n;
-    }
 }
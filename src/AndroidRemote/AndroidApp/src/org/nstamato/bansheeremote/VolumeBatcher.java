@@ -0,0 +1,127 @@
+package org.nstamato.bansheeremote;
+
+/*
+BansheeRemote
+
+Copyright (C) 2011 Nikitas Stamatopoulos
+
+Permission is hereby granted, free of charge, to any person obtaining
+a copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+import android.os.Handler;
+
+/*
+ * Collects volume key presses for WINDOW ms and sends them as one
+ * "volume/<delta>" USER command of the CommandExecutor, with at most one
+ * command in flight; presses that come in meanwhile go out with the next
+ * one. The server answers with the level it ended up at, which is handed
+ * to the listener on the UI thread.
+ *
+ * Servers without "volume/" answer with nothing, and the batch is then
+ * sent as single volumeUp/volumeDown steps instead.
+ */
+public class VolumeBatcher {
+	public interface Listener {
+		/* level is the new volume in percent, or -1 if it isn't known. */
+		void onVolume(int level);
+		void onError();
+	}
+
+	public static final int STEP = 10;
+	private static final int WINDOW = 150;
+	private static final int ERROR = -2;
+
+	private final Handler handler = new Handler();
+	private final Listener listener;
+	private RemoteSession session;
+	private int pending = 0;
+	private boolean scheduled = false, sending = false;
+
+	private final Runnable flush = new Runnable(){
+		public void run(){
+			scheduled = false;
+			if(sending || pending == 0)
+				return;
+			final int delta = pending;
+			final RemoteSession target = session;
+			pending = 0;
+			sending = true;
+			CommandExecutor.submit(target, CommandExecutor.USER, new CommandExecutor.Call<Integer>(){
+				public Integer run(RemoteSession session){
+					return send(session, delta);
+				}
+			}, new CommandExecutor.Callback<Integer>(){
+				public void onResult(Integer level){
+					done(level);
+				}
+				public void onError(Exception e){
+					done(ERROR);
+				}
+			});
+		}
+	};
+
+	private void done(int level){
+		sending = false;
+		if(level == ERROR)
+			listener.onError();
+		else
+			listener.onVolume(level);
+		if(pending != 0 && !scheduled)
+			flush.run();
+	}
+
+	public VolumeBatcher(Listener listener){
+		this.listener = listener;
+	}
+
+	/* One key press; steps is 1 for up and -1 for down. */
+	public void press(RemoteSession session, int steps){
+		this.session = session;
+		pending += steps * STEP;
+		if(!scheduled && !sending){
+			scheduled = true;
+			handler.postDelayed(flush, WINDOW);
+		}
+	}
+
+	public void cancel(){
+		handler.removeCallbacks(flush);
+		scheduled = false;
+		pending = 0;
+	}
+
+	private static int send(RemoteSession session, int delta){
+		try{
+			String level = session.getInfo("volume", Integer.toString(delta));
+			if(level.length() > 0)
+				return Integer.parseInt(level.trim());
+			for(int i=0;i<Math.abs(delta)/STEP;i++)
+				session.sendCommand(delta > 0 ? "volumeUp" : "volumeDown", null);
+			return -1;
+		}
+		catch(NumberFormatException e){
+			return -1;
+		}
+		catch(Exception e){
+			return ERROR;
+		}
+	}
+}
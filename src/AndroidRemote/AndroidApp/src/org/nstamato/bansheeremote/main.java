@@ -27,7 +27,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 */
 
 import java.io.*;
-import java.net.*;
+import java.util.concurrent.atomic.AtomicReference;
 
 import android.app.Activity;
 import android.app.ProgressDialog;
@@ -64,51 +64,125 @@ public class main extends Activity{
 	public TextView track, artist, album, seekposition, seektotal;
 	public SeekBar seekbar;
 	public ImageView cover;
+	public int coverWidth, coverHeight;
 	
 
 	public static String server="";
 	public static int port=-1;
-	public static int interval = 1;
 	
-	public final static int PARTIAL_UPDATE = 1, FULL_UPDATE = 2;
+	public final static int STATE_CHANGED = 1;
+	public final static String CONNECT_ERROR = "Can't connect to Server. Check your settings.";
+	// how long a sync waits for the poller to let go of the connection
+	public final static long SYNC_QUIESCE_TIMEOUT = 5000;
 	public final String filenameDB = "banshee.db";
 	
-	public String strack, sartist, salbum;
-	public int iseekposition, iseektotal;
-	public String istatus;
-	public Bitmap bcover = null;
-	public Socket s;
-	public OutputStream os;
-	public InputStream is;
 	public String command;
-	public boolean isCover;
 	public Bitmap no_cover;//=BitmapFactory.decodeResource(getResources(),R.drawable.no_cover_art);
 	//public boolean connected;
 	public ProgressDialog pd;
 	public Thread getDB;
 	public SQLiteDatabase bansheeDB = null;
-	public boolean serverThreadDone = false;
+	public final SeekPipeline seeks = new SeekPipeline();
+	public final PlaybackClock clock = new PlaybackClock();
+	public PlayerPoller poller;
+	// written by any thread, always replaced as a whole
+	private final AtomicReference<PlayerState> state = new AtomicReference<PlayerState>(PlayerState.EMPTY);
+	// what the views show, only touched on the UI thread
+	private PlayerState shown = null;
+	// the track after the current one with its cover decoded, once prefetched
+	private final AtomicReference<PlayerState> upcoming = new AtomicReference<PlayerState>();
+	// identity of the track the last prefetch was for, only touched on the UI thread
+	private String prefetchedFor = null;
+	// seconds before the end of a track that its successor is prefetched
+	public final static int PREFETCH_AHEAD = 10;
+	// moves the position along from the local clock while the track plays
+	public final Runnable tick = new Runnable(){
+		public void run(){
+			update.removeCallbacks(this);
+			PlayerState current = state.get();
+			int position = clock.position();
+			if(current.isPlaying())
+				prefetch(current, position);
+			if(!clock.isRunning()){
+				// the local clock ran out, so move on to the next track if it is known
+				if(current.isPlaying() && current.total > 0 && position >= current.total)
+					advance(current);
+				return;
+			}
+			setPosition(position);
+			update.postDelayed(this, clock.untilNextSecond());
+		}
+	};
+	public Toast volumeToast;
+	public final VolumeBatcher volume = new VolumeBatcher(new VolumeBatcher.Listener(){
+		public void onVolume(int level){
+			if(level >= 0)
+				showVolume("Volume "+level+"%");
+		}
+		public void onError(){
+			showVolume("Can't connect to Server. Check your settings.");
+		}
+	});
+
+	// one toast for all volume changes, so a burst of them doesn't queue up
+	public void showVolume(String text){
+		if(volumeToast == null)
+			volumeToast = Toast.makeText(main.this,text,Toast.LENGTH_SHORT);
+		else
+			volumeToast.setText(text);
+		volumeToast.show();
+	}
 	public final Handler update = new Handler() {
 		@Override
 		public void handleMessage(Message msg) {
-			
-			if(msg.what == FULL_UPDATE) {
-				playpause.setImageResource((istatus.contains("playing")) ? android.R.drawable.ic_media_pause : android.R.drawable.ic_media_play);
-				track.setText(strack);
-				artist.setText(sartist);
-				album.setText(salbum);
-				
-				seektotal.setText(formatTime(iseektotal));
-				seekbar.setMax(iseektotal);
-				cover.setImageBitmap(bcover);
+			PlayerState next = state.get();
+			PlayerState old = shown;
+			shown = next;
+			// only the views whose values changed are touched
+			if(old == null || !PlayerState.equal(old.status, next.status))
+				playpause.setImageResource(next.isPlaying() ? android.R.drawable.ic_media_pause : android.R.drawable.ic_media_play);
+			if(old == null || !PlayerState.equal(old.track, next.track))
+				track.setText(next.track);
+			if(old == null || !PlayerState.equal(old.artist, next.artist))
+				artist.setText(next.artist);
+			if(old == null || !PlayerState.equal(old.album, next.album))
+				album.setText(next.album);
+			if(old == null || old.total != next.total){
+				seektotal.setText(formatTime(next.total));
+				seekbar.setMax(next.total);
+			}
+			if(old == null || old.cover != next.cover)
+				cover.setImageBitmap(next.cover);
+			if(old == null || old.position != next.position || old.total != next.total){
+				seekbar.setProgress(next.position);
+				seekposition.setText(formatTime(next.position));
 			}
+		}
+	};
 
-			seekbar.setProgress(iseekposition);
-			seekposition.setText(formatTime(iseekposition));
-			
+	public PlayerState getState(){
+		return state.get();
+	}
+
+	/* Publishes a new state and has the views catch up with it. */
+	public void publish(PlayerState next){
+		state.set(next);
+		update.removeMessages(STATE_CHANGED);
+		update.sendEmptyMessage(STATE_CHANGED);
+	}
 
+	/* Moves the position of whatever state is current. */
+	public void setPosition(int position){
+		PlayerState old, next;
+		do{
+			old = state.get();
+			next = old.withPosition(position);
+		}while(!state.compareAndSet(old, next));
+		if(next != old){
+			update.removeMessages(STATE_CHANGED);
+			update.sendEmptyMessage(STATE_CHANGED);
 		}
-	};
+	}
 
 	public static String formatTime(int seconds) {
 		String leading = (seconds % 60 < 10) ? "0" : "";
@@ -119,64 +193,46 @@ public class main extends Activity{
 	}
 	
 
-	public boolean continueserver = true;
-	
-	public Thread serverpoke = new Thread(new Runnable() {
-		public void run() {
-			while(true){
-				while(continueserver) {
-					serverThreadDone = false;
-					if(!istatus.equals("idle")){
-						try {
-							int oldseektotal = iseektotal;
-							String oldstatus = istatus;
-							getAllInfo();
-							if(isCover  && (bcover==null)){
-								bcover = getCover(server,port);
-							}
-							if(!istatus.equals(oldstatus)){
-								update.sendEmptyMessage(FULL_UPDATE);
-							}
-							if(iseektotal != oldseektotal) {
-								bcover=no_cover;
-						    	if(isCover)
-						    		bcover = getCover(server,port);
-						    	update.sendEmptyMessage(FULL_UPDATE);
-							} 	
-							else {
-								update.sendEmptyMessage(PARTIAL_UPDATE);
-							}
-			
-						}catch(Exception e) {
-						}
-					}
-					else{
-						try {
-							istatus = getInfo("status",null);
-						} catch (Exception e) {
-							
-							e.printStackTrace();
-						}
-					}
-					
-					// then sleep until next round
-					try {			
-						Thread.sleep(1000 * interval);
-					} catch (Exception e) {
-						e.printStackTrace();
-					}
-					
-					serverThreadDone=true;
-				}
-				try{
-					Thread.sleep(1000 * interval);
-				}catch(Exception e){
-					
+	// follows the player for as long as this activity lives, see PlayerPoller
+	public final PlayerPoller.Client pollerClient = new PlayerPoller.Client() {
+		public String getServer() {
+			return server;
+		}
+		public int getPort() {
+			return port;
+		}
+		public int pollDelay(PollScheduler scheduler) {
+			PlayerState current = state.get();
+			return scheduler.pollDelay(current.status, clock.position(), current.total);
+		}
+		public void onEvent(PlayerEventStream.Event event) throws Exception {
+			// nothing on screen shows the shuffle and repeat modes
+			if(event.kind.equals("shuffle") || event.kind.equals("repeat")){
+				return;
+			}
+			else {
+				PlayerState old = state.get();
+				PlayerState next = PlayerState.parse(event.fields);
+				if(next == null){
+					// at least the status is there when the player is idle
+					if(event.fields.length > 0)
+						publish(old.withStatus(event.fields[0]));
+					return;
 				}
+				// a "track" event from a server without hashes is all there is to go by
+				boolean changed = next.coverHash == null && event.kind.equals("track");
+				PlayerState ahead = upcoming.get();
+				if(!changed && old.cover != null && next.sameCover(old))
+					next = next.withCover(old.cover);
+				else if(ahead != null && ahead.sameTrack(next) && ahead.sameCover(next))
+					next = next.withCover(ahead.cover);
+				else
+					next = next.withCover(next.hasCover ? getCover(next,old) : no_cover);
+				publish(next);
+				anchorClock(next);
 			}
-			
 		}
-	});
+	};
 	
 	
     @Override
@@ -186,6 +242,8 @@ public class main extends Activity{
 		item1.setIcon(android.R.drawable.ic_menu_edit);
 		MenuItem item5 = menu.add(0,4,4,"Sync");
 		item5.setIcon(R.drawable.ic_menu_refresh);
+		MenuItem item6 = menu.add(0,5,5,"Search");
+		item6.setIcon(android.R.drawable.ic_menu_search);
 		MenuItem item2 = menu.add(0,1,1,"Shuffle");
 		item2.setIcon(android.R.drawable.ic_menu_directions);
 		MenuItem item3 = menu.add(0,2,2,"Repeat");
@@ -210,78 +268,155 @@ public class main extends Activity{
     		//File dir = Environment.getExternalStorageDirectory();
     		//Toast.makeText(main.this,"Shuffle mode by "+dir.getAbsolutePath(),Toast.LENGTH_SHORT).show();
     		
-    		continueserver=false;
-    		while(true){
-    			if(serverThreadDone){
+    		poller.quiesce(update, SYNC_QUIESCE_TIMEOUT, new PlayerPoller.QuiesceListener(){
+    			public void onQuiesced(){
     				syncLibrary();
-    				break;
     			}
-    		}
+    			public void onTimeout(){
+    				poller.resume();
+    				Toast.makeText(main.this,"The server is still busy, please try synching again.",Toast.LENGTH_SHORT).show();
+    			}
+    		});
     		
     		
     	}
     	
+    	else if(item.getItemId()==5){
+    		Intent i = new Intent(main.this,SongSearch.class);
+    		startActivityForResult(i,2);
+    	}
+    	
     	else if(item.getItemId()==1){
-    		try{
-				String shuffleText = getInfo("shuffle",null);
-    			if(shuffleText.equals("off"))
-    				Toast.makeText(main.this,"Shuffle mode off",Toast.LENGTH_SHORT).show();
-    			else if(shuffleText.equals("song") || shuffleText.equals("Artist") || shuffleText.equals("Album") || shuffleText.equals("Score") || shuffleText.equals("Rating"))
-    				Toast.makeText(main.this,"Shuffle mode by "+shuffleText,Toast.LENGTH_SHORT).show();
-    			
-    		}catch(Exception e){
-    			Toast.makeText(main.this,"Can't connect to Server. Check your settings.",Toast.LENGTH_SHORT).show();
-    		}
-    		serverpoke.interrupt();
+    		getInfo("shuffle",null,new CommandExecutor.Callback<String>(){
+    			public void onResult(String shuffleText){
+	    			if(shuffleText.equals("off"))
+	    				Toast.makeText(main.this,"Shuffle mode off",Toast.LENGTH_SHORT).show();
+	    			else if(shuffleText.equals("song") || shuffleText.equals("Artist") || shuffleText.equals("Album") || shuffleText.equals("Score") || shuffleText.equals("Rating"))
+	    				Toast.makeText(main.this,"Shuffle mode by "+shuffleText,Toast.LENGTH_SHORT).show();
+    			}
+    			public void onError(Exception e){
+	    			Toast.makeText(main.this,CONNECT_ERROR,Toast.LENGTH_SHORT).show();
+    			}
+    		});
     	}
     	else if(item.getItemId()==2){
-    		try{
-    			String repeatText = getInfo("repeat",null);
-    			if(repeatText.equals("off")||repeatText.equals("single")||repeatText.equals("all")){
-    				Toast.makeText(main.this,"Repeat mode "+repeatText,Toast.LENGTH_SHORT).show();
+    		getInfo("repeat",null,new CommandExecutor.Callback<String>(){
+    			public void onResult(String repeatText){
+	    			if(repeatText.equals("off")||repeatText.equals("single")||repeatText.equals("all")){
+	    				Toast.makeText(main.this,"Repeat mode "+repeatText,Toast.LENGTH_SHORT).show();
+	    			}
     			}
-    		}catch(Exception e){
-    			Toast.makeText(main.this,"Can't connect to Server. Check your settings.",Toast.LENGTH_SHORT).show();
-    		}
-    		serverpoke.interrupt();
+    			public void onError(Exception e){
+	    			Toast.makeText(main.this,CONNECT_ERROR,Toast.LENGTH_SHORT).show();
+    			}
+    		});
     	}
     		
 		return true;
 	}
     
-    public void sendCommand(String action, String params) throws Exception{
-    	String formattedAction = action+'/'+params;
-    	
-			this.s = new Socket(server,port);
-			this.os = this.s.getOutputStream();
-			this.os.write(formattedAction.getBytes(), 0, formattedAction.length());
-		
+    /*
+     * Close to the end of a track, asks the server what plays next and gets
+     * its cover decoded, so the switch needs no round trip.
+     */
+    public void prefetch(PlayerState current, int position){
+    	if(current.total <= 0 || current.total - position > PREFETCH_AHEAD)
+    		return;
+    	final String identity = current.identity();
+    	if(identity.equals(prefetchedFor))
+    		return;
+    	prefetchedFor = identity;
+    	upcoming.set(null);
+    	CommandExecutor.submit(RemoteSession.get(server,port),CommandExecutor.COVER,new CommandExecutor.Call<PlayerState>(){
+    		public PlayerState run(RemoteSession session) throws Exception{
+    			PlayerState next = PlayerState.parseNext(session.getFields("prefetch",null));
+    			if(next == null)
+    				return null;
+    			if(!next.hasCover)
+    				return next.withCover(no_cover);
+    			CoverCache covers = CoverCache.get(main.this);
+    			Bitmap decoded = covers.get(next.coverKey());
+    			if(decoded == null){
+    				byte[] coverBytes = session.request("prefetchCover",next.trackId);
+    				if(coverBytes.length == 0)
+    					return null;
+    				decoded = CoverDecoder.decode(coverBytes,coverWidth,coverHeight);
+    				covers.put(CoverCache.hash(coverBytes),coverBytes,decoded);
+    			}
+    			return decoded == null ? null : next.withCover(decoded);
+    		}
+    	},this,new CommandExecutor.Callback<PlayerState>(){
+    		public void onResult(PlayerState next){
+    			// only if the track it was asked for is still the one playing
+    			if(next != null && identity.equals(state.get().identity()))
+    				upcoming.set(next);
+    		}
+    		public void onError(Exception e){
+    		}
+    	});
     }
     
-    public String getInfo(String action, String params) throws Exception{
-    	String data=null;
-    	String formattedAction = action+'/'+params;
-    		this.s = new Socket(server,port);
-			this.os = this.s.getOutputStream();
-			this.is = this.s.getInputStream();
-			this.os.write(formattedAction.getBytes(), 0, formattedAction.length());
-			int byteCount = -1;
-			byteArrayOutputStream.reset();
-			while ((byteCount = this.is.read(byteBuff, 0, byteBuff.length)) != -1) {
-				byteArrayOutputStream.write(byteBuff, 0, byteCount);
-			}
-			data = byteArrayOutputStream.toString();
-		return data;
+    /* Shows the prefetched track right away; the server confirms or corrects it soon after. */
+    public void advance(PlayerState current){
+    	PlayerState next = upcoming.getAndSet(null);
+    	if(next == null || next.sameTrack(current))
+    		return;
+    	publish(next);
+    	anchorClock(next);
+    }
+    
+    /* Restarts the local clock from the position and status last heard from the server. */
+    public void anchorClock(PlayerState current){
+    	clock.set(current.position, current.total, current.isPlaying());
+    	update.post(tick);
+    }
+    
+    /* Sends a command in the background and shows failure if it doesn't get through. */
+    public void sendCommand(String action, String params, final String failure){
+    	CommandExecutor.sendCommand(RemoteSession.get(server,port),action,params,this,new CommandExecutor.Callback<String>(){
+    		public void onResult(String result){
+    		}
+    		public void onError(Exception e){
+    			Toast.makeText(main.this,failure,Toast.LENGTH_SHORT).show();
+    		}
+    	});
+    }
+    
+    public void getInfo(String action, String params, CommandExecutor.Callback<String> callback){
+    	CommandExecutor.getInfo(RemoteSession.get(server,port),action,params,this,callback);
+    }
+    
+    /* For the poller thread: fetches the cover behind any waiting user commands. */
+    public Bitmap getCover(final PlayerState current, final PlayerState shown){
+    	try {
+    		return CommandExecutor.submit(RemoteSession.get(server,port),CommandExecutor.COVER,new CommandExecutor.Call<Bitmap>(){
+    			public Bitmap run(RemoteSession session){
+    				return loadCover(session,current,shown);
+    			}
+    		},null).await();
+    	} catch (Exception e) {
+    		return null;
+    	}
     }
-    public static Bitmap getCover(String server, int port){
-    	Bitmap decoded = null;
-    	String command="coverImage/";
+    
+    /*
+     * The cover of current, from the cache or the server. While shown has a
+     * cover with a hash the request is conditional, and an empty reply
+     * means the server's cover is still that one.
+     */
+    private Bitmap loadCover(RemoteSession session, PlayerState current, PlayerState shown){
+    	CoverCache covers = CoverCache.get(this);
+    	Bitmap decoded = covers.get(current.coverKey());
+    	if(decoded != null)
+    		return decoded;
+    	boolean conditional = shown.coverHash != null && shown.coverHash.length() > 0 && shown.cover != null && shown.cover != no_cover;
     	try {
-			Socket s = new Socket(server,port);
-			OutputStream os = s.getOutputStream();
-			InputStream is = s.getInputStream();
-			os.write(command.getBytes(), 0, command.length());
-			decoded = BitmapFactory.decodeStream(is);
+			byte[] coverBytes = session.request("coverImage",conditional ? shown.coverHash : null);
+			if(conditional && coverBytes.length == 0)
+				return shown.cover;
+			decoded = CoverDecoder.decode(coverBytes,coverWidth,coverHeight);
+			// keyed by what arrived, which may already be the next track's cover
+			covers.put(current.coverHash != null ? CoverCache.hash(coverBytes) : current.coverKey(),coverBytes,decoded);
 		} catch (IOException e) {
 		}
     	return decoded;
@@ -299,81 +434,63 @@ public void syncLibrary(){
    
 
 
-    public boolean coverExists() throws Exception{
-    	String data=null;
-    	String action="coverExists/";
-    	boolean done=false;
-    	while(!done){
-    		this.s = new Socket(server,port);
-			this.os = this.s.getOutputStream();
-			this.is = this.s.getInputStream();
-			this.os.write(action.getBytes(), 0, action.length());
-			int byteCount = -1;
-			byteArrayOutputStream.reset();
-			while ((byteCount = this.is.read(byteBuff, 0, byteBuff.length)) != -1) {
-				byteArrayOutputStream.write(byteBuff, 0, byteCount);
-			}
-			data = byteArrayOutputStream.toString();
-			if(data.equals("true")||data.equals("false")){
-				done=true;
-			}
-    	}
-		return Boolean.parseBoolean(data);
+    /*
+     * Asks the server for everything on the screen, off the UI thread, and
+     * shows it when it arrives.
+     */
+    public void refresh(){
+    	CommandExecutor.submit(RemoteSession.get(server,port),CommandExecutor.USER,new CommandExecutor.Call<PlayerState>(){
+    		public PlayerState run(RemoteSession session) throws Exception{
+    			String status = session.getInfo("status",null);
+    			if(status.contains("idle"))
+    				return state.get().withStatus(status);
+    			PlayerState next = PlayerState.parse(session.getFields("all",null));
+    			if(next == null)
+    				throw new IOException("Unexpected reply to all");
+    			return next.withCover(next.hasCover ? loadCover(session,next,state.get()) : no_cover);
+    		}
+    	},this,new CommandExecutor.Callback<PlayerState>(){
+    		public void onResult(PlayerState next){
+    			publish(next);
+    			anchorClock(next);
+    		}
+    		public void onError(Exception e){
+    			Toast.makeText(main.this,CONNECT_ERROR,Toast.LENGTH_SHORT).show();
+    		}
+    	});
     }
     
-    public int getInfoInt(String action,String params){
-    	int n=-1;
-    	boolean done=false;
-    	while(!done){
-	    	try{
-	    		n = Integer.parseInt(getInfo(action,params));
-	    		done=true;
-	    	}
-	    	catch(NumberFormatException e){
-	    		done=false;
-	    	}
-	    	catch(Exception e){
-	    		
-	    	}
-    	}
-		return n;
+    @Override
+    protected void onPause() {
+    	super.onPause();
+    	poller.pause();
+    	update.removeCallbacks(tick);
     }
-    public void getAllInfo() throws Exception{
-    	//Toast.makeText(main.this,"Inside",Toast.LENGTH_SHORT).show();
-    	String everything = getInfo("all",null);
-    	boolean done=false;
-    	while(!done){
-	    	if(everything!=null){
-	    		String resultArray[] = new String[7];
-	    		resultArray = everything.split("/");
-	    		istatus = resultArray[0];
-	    		salbum = resultArray[1];
-	    		sartist = resultArray[2];
-	    		strack = resultArray[3];
-	    		try {
-	    			iseekposition =  Integer.parseInt(resultArray[4]);
-	    			iseektotal = Integer.parseInt(resultArray[5]);
-	    			isCover = Boolean.parseBoolean(resultArray[6]);
-	    			if(resultArray[6].equals("false") || resultArray[6].equals("true")){
-	    				done=true;
-	    			}
-	    		} 
-	    		catch(NumberFormatException e){
-	    			done=false;
-	    		}
-	    		catch(Exception e) {
-	    			Toast.makeText(main.this,"Can't connect to Server. Check your settings.",Toast.LENGTH_SHORT).show();
-	    		}
-	    		 
-	    	}
-    	}
+    
+    @Override
+    protected void onResume() {
+    	super.onResume();
+    	poller.resume();
+    	update.post(tick);
     }
     
     @Override
     public void onDestroy() {
     	super.onDestroy();
-    	continueserver = false;
-    	this.serverpoke.interrupt();
+    	poller.terminate();
+    	// the telephony service would otherwise keep the activity alive
+    	tm.listen(phoneListener,PhoneStateListener.LISTEN_NONE);
+    	seeks.close();
+    	update.removeCallbacks(tick);
+    	volume.cancel();
+    	// closing waits for the session's current call, so it is queued behind it
+    	if(isFinishing())
+    		CommandExecutor.submit(RemoteSession.get(server,port),CommandExecutor.POLL,new CommandExecutor.Call<Void>(){
+    			public Void run(RemoteSession session){
+    				session.close();
+    				return null;
+    			}
+    		},null);
     	//if(this.getDB.isAlive())
     	//this.getDB.interrupt();
     }
@@ -387,22 +504,7 @@ public void syncLibrary(){
 		    		server = extras.getString("ip");
 		    		port = extras.getInt("port");
 		    	}
-		    	try {
-					istatus = getInfo("status",null);
-				} catch (Exception e) {
-				}
-				
-				if(!istatus.contains("idle")){
-					try{
-						getAllInfo();
-					}catch(Exception e){
-						Toast.makeText(main.this,"Can't connect to Server. Check your settings.",Toast.LENGTH_SHORT).show();
-					}
-					bcover=no_cover;
-					if(isCover)
-						bcover = getCover(server,port);
-					update.sendEmptyMessage(FULL_UPDATE);
-				}
+		    	refresh();
 	       	}
 	       	else if(requestCode==1){
 	       		if(resultCode==RESULT_OK+1){
@@ -417,19 +519,12 @@ public void syncLibrary(){
 	       			Bundle extras = data.getExtras();
 		    		String Uri = extras.getString("Uri");
 		    		String safeUri = Uri.replace('/','*');
-	       			try {
-						sendCommand("play",safeUri);
-					} catch (Exception e) {
-						Toast.makeText(main.this,"Something went wrong enqueuing.",Toast.LENGTH_LONG).show();
-						
-					}
+	       			sendCommand("play",safeUri,"Something went wrong enqueuing.");
 	       		}
 	       	}
 			
-			continueserver = true;
 			//connected = true;
-			if(!this.serverpoke.isAlive())
-	    		this.serverpoke.start();
+			poller.resume();
     	
     }
     public void displaySettings(){
@@ -442,7 +537,8 @@ public void syncLibrary(){
     
     @Override
     public Object onRetainNonConfigurationInstance(){
-    	BansheeInstance data = new BansheeInstance(istatus, bcover, strack, sartist, salbum, iseekposition, iseektotal, isCover, server, port);
+    	PlayerState current = state.get();
+    	BansheeInstance data = new BansheeInstance(current.status, current.cover, current.track, current.artist, current.album, current.position, current.total, current.hasCover, server, port);
     	return data;
     }
     @Override
@@ -451,26 +547,13 @@ public void syncLibrary(){
         int keyCode = event.getKeyCode();
             switch (keyCode) {
             case KeyEvent.KEYCODE_VOLUME_UP:
-                if (action == KeyEvent.ACTION_UP) {
-                	try{
-						sendCommand("volumeUp",null);
-					}
-					catch(Exception e){
-						Toast.makeText(main.this,"Can't connect to Server. Check your settings.",Toast.LENGTH_SHORT).show();
-
-					}
-                }
+                // every press and auto-repeat counts, the batcher sends them together
+                if (action == KeyEvent.ACTION_DOWN)
+                	volume.press(RemoteSession.get(server,port),1);
                 return true;
             case KeyEvent.KEYCODE_VOLUME_DOWN:
-                if (action == KeyEvent.ACTION_UP) {
-                	try{
-						sendCommand("volumeDown",null);
-					}
-					catch(Exception e){
-						Toast.makeText(main.this,"Can't connect to Server. Check your settings.",Toast.LENGTH_SHORT).show();
-
-					}
-                }
+                if (action == KeyEvent.ACTION_DOWN)
+                	volume.press(RemoteSession.get(server,port),-1);
                 return true;
             default:
                 return super.dispatchKeyEvent(event);
@@ -487,39 +570,15 @@ public void syncLibrary(){
         	server = extras.getString("ip");
         	port = extras.getInt("port");
 
-        	try {
-    			istatus = getInfo("status",null);
-    		} catch (Exception e) {
-    			Toast.makeText(main.this,"Can't connect to Server. Check your settings.",Toast.LENGTH_SHORT).show();
-    		}
-    		if(istatus!=null){
-	    		if(!istatus.contains("idle")){
-	    			try{
-	    				getAllInfo();
-	    			}catch(Exception e){
-	    				Toast.makeText(main.this,"Can't connect to Server. Check your settings.",Toast.LENGTH_SHORT).show();
-	    			}
-	    			bcover=no_cover;
-	    			if(isCover)
-	    				bcover = getCover(server,port);
-	    		}
-    		}
+        	refresh();
     }
     else{
     	server = data.ip;
     	port = data.port;
-    	istatus=data.status;
-		bcover = data.cover;
-		strack=data.track;
-		sartist=data.artist;
-		salbum=data.album;
-		iseekposition=data.iseekposition;
-		iseektotal=data.iseektotal;
+    	publish(new PlayerState(data.status, data.track, data.artist, data.album, data.iseekposition, data.iseektotal, data.isCover, data.cover, null, null));
     }
-        update.sendEmptyMessage(FULL_UPDATE);
-    		continueserver = true;
-    		if(!this.serverpoke.isAlive())
-        		this.serverpoke.start();
+        publish(state.get());
+    		poller = PlayerPoller.start(pollerClient);
         }
     private void setup(int content){
         setContentView(content);
@@ -537,19 +596,17 @@ public void syncLibrary(){
         this.songs = (ImageButton)this.findViewById(R.id.songs);
         this.seekbar = (SeekBar)this.findViewById(R.id.seekbar);
         this.cover = (ImageView)this.findViewById(R.id.cover);
+        this.coverWidth = this.cover.getLayoutParams().width;
+        this.coverHeight = this.cover.getLayoutParams().height;
+        CoverCache.get(this).setSize(coverWidth,coverHeight);
         this.tm = (TelephonyManager)this.getSystemService(Context.TELEPHONY_SERVICE);
         this.no_cover=BitmapFactory.decodeResource(getResources(),R.drawable.no_cover_art);
         //this.tm.listen(this.phoneListener,PhoneStateListener.LISTEN_CALL_STATE);
         this.phoneListener = new PhoneStateListener(){
          public void onCallStateChanged(int state, String incomingNumber){
         	 if(state==TelephonyManager.CALL_STATE_RINGING){
-        		 if(istatus.equals("playing")){
-        			 try{
-        				 sendCommand("playPause",null);
- 						}catch(Exception e){
- 							Toast.makeText(main.this,"Could not pause for incoming call",Toast.LENGTH_SHORT).show();
-
- 						}
+        		 if(getState().isPlaying()){
+        			 sendCommand("playPause",null,"Could not pause for incoming call");
         		 }
         	 }
          }
@@ -557,21 +614,16 @@ public void syncLibrary(){
         this.tm.listen(this.phoneListener,PhoneStateListener.LISTEN_CALL_STATE);
         this.prev.setOnTouchListener(new OnTouchListener() {
 			public boolean onTouch(View v,MotionEvent me) {
-					try{
-						if (me.getAction() == MotionEvent.ACTION_DOWN) {
-		        			prev.setColorFilter(Color.CYAN, PorterDuff.Mode.SRC_ATOP);
-		        			return false;
-		        		} else if (me.getAction() == MotionEvent.ACTION_UP) {
-		        			prev.setColorFilter(Color.parseColor("#00000000"), PorterDuff.Mode.SRC_ATOP);
-		        			sendCommand("prev",null);
-							//update.sendEmptyMessage(FULL_UPDATE);
-		        			return true;
-		        		}
-					}
-					catch(Exception e){
-        				Toast.makeText(main.this,"Can't connect to Server. Check your settings.",Toast.LENGTH_SHORT).show();
-        			}
-		        		return false;
+					if (me.getAction() == MotionEvent.ACTION_DOWN) {
+	        			prev.setColorFilter(Color.CYAN, PorterDuff.Mode.SRC_ATOP);
+	        			return false;
+	        		} else if (me.getAction() == MotionEvent.ACTION_UP) {
+	        			prev.setColorFilter(Color.parseColor("#00000000"), PorterDuff.Mode.SRC_ATOP);
+	        			sendCommand("prev",null,CONNECT_ERROR);
+						//update.sendEmptyMessage(FULL_UPDATE);
+	        			return true;
+	        		}
+	        		return false;
 			}
         });
         
@@ -586,13 +638,7 @@ public void syncLibrary(){
         			return false;
         		} else if (me.getAction() == MotionEvent.ACTION_UP) {
         			playpause.setColorFilter(Color.parseColor("#00000000"), PorterDuff.Mode.SRC_ATOP);
-        			try{
-        			sendCommand("playPause",null);
-					update.sendEmptyMessage(FULL_UPDATE);
-        			}
-        			catch(Exception e){
-        				Toast.makeText(main.this,"Can't connect to Server. Check your settings.",Toast.LENGTH_SHORT).show();
-        			}
+        			sendCommand("playPause",null,CONNECT_ERROR);
         			return true;
         		}
         		return false;
@@ -602,30 +648,24 @@ public void syncLibrary(){
         
         this.next.setOnTouchListener(new OnTouchListener() {
 			public boolean onTouch(View v,MotionEvent me) {
-					try{
-						if (me.getAction() == MotionEvent.ACTION_DOWN) {
-		        			next.setColorFilter(Color.CYAN, PorterDuff.Mode.SRC_ATOP);
-		        			return false;
-		        		} else if (me.getAction() == MotionEvent.ACTION_UP) {
-		        			next.setColorFilter(Color.parseColor("#00000000"), PorterDuff.Mode.SRC_ATOP);
-		        			sendCommand("next",null);
-							update.sendEmptyMessage(FULL_UPDATE);
-		        			return true;
-		        		}
-					}
-					catch(Exception e){
-        				Toast.makeText(main.this,"Can't connect to Server. Check your settings.",Toast.LENGTH_SHORT).show();
-        			}
-		        		return false;
+					if (me.getAction() == MotionEvent.ACTION_DOWN) {
+	        			next.setColorFilter(Color.CYAN, PorterDuff.Mode.SRC_ATOP);
+	        			return false;
+	        		} else if (me.getAction() == MotionEvent.ACTION_UP) {
+	        			next.setColorFilter(Color.parseColor("#00000000"), PorterDuff.Mode.SRC_ATOP);
+	        			sendCommand("next",null,CONNECT_ERROR);
+	        			return true;
+	        		}
+	        		return false;
 					//sendCommand("prev",null);
 					/*
 					getAllInfo();
 					bcover=null;
 					if(isCover){
-						bcover = getCover(server,port);
+						bcover = getCover();
 					}
 					update.sendEmptyMessage(FULL_UPDATE);
-					serverpoke.interrupt();
+					poller.wake();
 					*/
 			}
         });
@@ -699,13 +739,9 @@ public void syncLibrary(){
         this.seekbar.setOnSeekBarChangeListener(new OnSeekBarChangeListener() {
 			public void onProgressChanged(SeekBar seekBar, int progress, boolean fromTouch) {
 				if(fromTouch){
-						try{
-							sendCommand("seek",Integer.toString(progress));
-							iseekposition=progress;
-							update.sendEmptyMessage(PARTIAL_UPDATE);
-						}catch(Exception e){
-							//Toast.makeText(BansheeRemote.this,"Can't connect to Server. Check your settings.",Toast.LENGTH_SHORT).show();
-						}
+						seeks.seek(RemoteSession.get(server,port),progress);
+						setPosition(progress);
+						anchorClock(state.get());
 				}
 			}
 			
@@ -715,13 +751,10 @@ public void syncLibrary(){
 			}
 
 			public void onStopTrackingTouch(SeekBar seekBar) {
+				seeks.finish(RemoteSession.get(server,port),seekBar.getProgress());
 			}
         });
         
     }
     
-	public static ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-	public static byte[] byteBuff = new byte[1024];
-	
-
 }
\ No newline at end of file
@@ -0,0 +1,97 @@
+package org.nstamato.bansheeremote;
+
+/*
+BansheeRemote
+
+Copyright (C) 2011 Nikitas Stamatopoulos
+
+Permission is hereby granted, free of charge, to any person obtaining
+a copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+
+/*
+ * A local stand-in for the Banshee server. It accepts the text event
+ * subscription, pushes one "status" event and then stays quiet, so a
+ * poller sits in a read until it is told to stop. Any other connection,
+ * like a session, is closed straight away.
+ */
+public class FakeServer {
+	private static final String SUBSCRIBE = "subscribe/frames";
+
+	private final ServerSocket server;
+	private final ArrayList<Socket> accepted = new ArrayList<Socket>();
+
+	public FakeServer() throws IOException{
+		server = new ServerSocket(0, 8, InetAddress.getByName("127.0.0.1"));
+		Thread acceptor = new Thread(new Runnable(){
+			public void run(){
+				try{
+					while(true)
+						answer(server.accept());
+				}
+				catch(IOException e){
+				}
+			}
+		}, "FakeServer");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	public String getServer(){
+		return "127.0.0.1";
+	}
+
+	public int getPort(){
+		return server.getLocalPort();
+	}
+
+	public void close() throws IOException{
+		server.close();
+		synchronized(accepted){
+			for(Socket socket : accepted)
+				socket.close();
+		}
+	}
+
+	private void answer(Socket socket) throws IOException{
+		synchronized(accepted){
+			accepted.add(socket);
+		}
+		InputStream in = socket.getInputStream();
+		String command = "";
+		int b;
+		while(!command.equals(SUBSCRIBE) && SUBSCRIBE.startsWith(command) && (b = in.read()) >= 0)
+			command += (char)b;
+		if(!command.equals(SUBSCRIBE)){
+			socket.close();
+			return;
+		}
+		OutputStream out = socket.getOutputStream();
+		out.write("subscribe\nstatus 7\nplaying".getBytes("UTF-8"));
+		out.flush();
+	}
+}
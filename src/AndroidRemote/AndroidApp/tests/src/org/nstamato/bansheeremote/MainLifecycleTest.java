@@ -0,0 +1,72 @@
+package org.nstamato.bansheeremote;
+
+/*
+BansheeRemote
+
+Copyright (C) 2011 Nikitas Stamatopoulos
+
+Permission is hereby granted, free of charge, to any person obtaining
+a copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+import java.lang.ref.WeakReference;
+
+import android.content.Intent;
+import android.test.ActivityInstrumentationTestCase2;
+
+/*
+ * Drives main through onDestroy against a FakeServer and checks that
+ * neither its poller thread nor the activity itself outlives it.
+ */
+public class MainLifecycleTest extends ActivityInstrumentationTestCase2<main> {
+	private FakeServer server;
+
+	public MainLifecycleTest(){
+		super("org.nstamato.bansheeremote", main.class);
+	}
+
+	protected void setUp() throws Exception{
+		super.setUp();
+		server = new FakeServer();
+		Intent intent = new Intent();
+		intent.putExtra("ip", server.getServer());
+		intent.putExtra("port", server.getPort());
+		setActivityIntent(intent);
+	}
+
+	protected void tearDown() throws Exception{
+		server.close();
+		super.tearDown();
+	}
+
+	public void testNothingOutlivesOnDestroy() throws Exception{
+		main activity = getActivity();
+		PlayerPoller poller = activity.poller;
+		assertTrue(poller.isAlive());
+		WeakReference<main> ref = new WeakReference<main>(activity);
+
+		activity.finish();
+		activity = null;
+		setActivity(null);
+		PlayerPollerTest.awaitEnd(poller);
+		assertFalse(poller.isAlive());
+		assertEquals(PlayerPoller.TERMINATED, poller.getState());
+		assertTrue("main is still reachable after onDestroy", PlayerPollerTest.awaitCollected(ref));
+	}
+}
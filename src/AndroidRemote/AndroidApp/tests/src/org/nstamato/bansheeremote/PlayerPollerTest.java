@@ -0,0 +1,143 @@
+package org.nstamato.bansheeremote;
+
+/*
+BansheeRemote
+
+Copyright (C) 2011 Nikitas Stamatopoulos
+
+Permission is hereby granted, free of charge, to any person obtaining
+a copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+import java.lang.ref.WeakReference;
+
+import junit.framework.TestCase;
+
+/*
+ * Runs PlayerPoller against a FakeServer, on the device or on a plain JVM.
+ */
+public class PlayerPollerTest extends TestCase {
+	static final long TIMEOUT = 5000;
+
+	private FakeServer server;
+
+	protected void setUp() throws Exception{
+		server = new FakeServer();
+	}
+
+	protected void tearDown() throws Exception{
+		server.close();
+		RemoteSession.closeAll();
+	}
+
+	public void testTerminateEndsTheThread() throws Exception{
+		FakeClient client = new FakeClient(server);
+		PlayerPoller poller = PlayerPoller.start(client);
+		client.awaitEvent();
+
+		poller.terminate();
+		awaitEnd(poller);
+		assertFalse(poller.isAlive());
+		assertEquals(PlayerPoller.TERMINATED, poller.getState());
+	}
+
+	public void testTerminateLetsGoOfTheClient() throws Exception{
+		FakeClient client = new FakeClient(server);
+		PlayerPoller poller = PlayerPoller.start(client);
+		client.awaitEvent();
+		WeakReference<FakeClient> ref = new WeakReference<FakeClient>(client);
+		client = null;
+
+		poller.terminate();
+		awaitEnd(poller);
+		assertTrue(awaitCollected(ref));
+	}
+
+	public void testStartTerminatesThePreviousPoller() throws Exception{
+		FakeClient first = new FakeClient(server);
+		PlayerPoller firstPoller = PlayerPoller.start(first);
+		first.awaitEvent();
+
+		FakeClient second = new FakeClient(server);
+		PlayerPoller secondPoller = PlayerPoller.start(second);
+		assertEquals(PlayerPoller.TERMINATED, firstPoller.getState());
+		awaitEnd(firstPoller);
+		assertFalse(firstPoller.isAlive());
+
+		second.awaitEvent();
+		assertEquals(PlayerPoller.RUNNING, secondPoller.getState());
+		assertTrue(secondPoller.isAlive());
+		secondPoller.terminate();
+		awaitEnd(secondPoller);
+		assertFalse(secondPoller.isAlive());
+	}
+
+	static void awaitEnd(PlayerPoller poller) throws InterruptedException{
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+		while(poller.isAlive() && System.currentTimeMillis() < deadline)
+			Thread.sleep(10);
+	}
+
+	/* Collects garbage until ref is cleared; false if it still isn't after TIMEOUT. */
+	static boolean awaitCollected(WeakReference<?> ref) throws InterruptedException{
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+		while(ref.get() != null && System.currentTimeMillis() < deadline){
+			System.gc();
+			System.runFinalization();
+			Thread.sleep(50);
+		}
+		return ref.get() == null;
+	}
+
+	private static class FakeClient implements PlayerPoller.Client {
+		private final String host;
+		private final int port;
+		private int events = 0;
+
+		FakeClient(FakeServer server){
+			this.host = server.getServer();
+			this.port = server.getPort();
+		}
+
+		public String getServer(){
+			return host;
+		}
+
+		public int getPort(){
+			return port;
+		}
+
+		/* Long enough that the poller never falls back to asking for "all". */
+		public int pollDelay(PollScheduler scheduler){
+			return 60000;
+		}
+
+		public synchronized void onEvent(PlayerEventStream.Event event){
+			events++;
+			notifyAll();
+		}
+
+		synchronized void awaitEvent() throws InterruptedException{
+			long deadline = System.currentTimeMillis() + TIMEOUT;
+			while(events == 0 && System.currentTimeMillis() < deadline)
+				wait(TIMEOUT);
+			assertTrue(events > 0);
+		}
+	}
+}
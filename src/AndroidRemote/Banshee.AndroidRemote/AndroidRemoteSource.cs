@@ -27,15 +27,22 @@
 //
 
 using System;
+using System.Collections.Generic;
+using System.Globalization;
 using System.Net;
 using System.Net.Sockets;
 using System.Text;
 using System.IO;
+using System.IO.Compression;
+using System.Security.Cryptography;
+using System.Threading;
 
 using Mono.Unix;
 using Mono.Addins;
 
 using Banshee.Collection;
+using Banshee.Collection.Database;
+using Banshee.MediaEngine;
 using Banshee.Sources;
 using Banshee.PlaybackController;
 using Banshee.ServiceStack;
@@ -43,6 +50,7 @@ using Banshee.Preferences;
 using Banshee.Configuration;
 
 using Hyena;
+using Hyena.Data.Sqlite;
 
 namespace Banshee.AndroidRemote
 {
@@ -51,7 +59,37 @@ namespace Banshee.AndroidRemote
     {
         Socket bansheeServerConn;
 		ushort volume = ServiceManager.PlayerEngine.Volume;
-		byte[] socketBuffer = new byte[5000];
+        const int HandshakeSize = 5000;
+        // how long the rest of a handshake that arrived in pieces is waited for
+        const int HandshakeTimeout = 1000;
+        // a session that sends nothing for this long is taken for a phone
+        // that left the network; the client reconnects well before it
+        const int SessionIdleTimeout = 10 * 60 * 1000;
+        List<Socket> sessions = new List<Socket>();
+        List<Subscriber> subscribers = new List<Subscriber>();
+        object syncLock = new object();
+        // database copies being downloaded, by generation
+        Dictionary<string, SyncSnapshot> syncSnapshots = new Dictionary<string, SyncSnapshot>();
+        const int MaxSyncSnapshots = 3;
+        static uint[] crcTable;
+        // MD5 of cover files by path, with the time and size they had when hashed
+        Dictionary<string, CoverHashEntry> coverHashes = new Dictionary<string, CoverHashEntry>();
+        const int MaxCoverHashes = 256;
+        const long MaxCoverSize = 110000;
+        
+        class CoverHashEntry
+        {
+            public DateTime Modified;
+            public long Length;
+            public string Hash;
+        }
+        
+        class SyncSnapshot
+        {
+            public string Generation;
+            public string Path;
+            public DateTime LastUsed;
+        }
 		
 		private PreferenceBase port_pref;
 		PreferenceService bansheePrefs;
@@ -71,13 +109,45 @@ namespace Banshee.AndroidRemote
 				listen();
 			};
             
+            ServiceManager.PlayerEngine.ConnectEvent(OnPlayerEvent,
+                PlayerEvent.StateChange | PlayerEvent.StartOfStream | PlayerEvent.Seek | PlayerEvent.TrackInfoUpdated);
+            ServiceManager.PlaybackController.ShuffleModeChanged += OnShuffleModeChanged;
+            ServiceManager.PlaybackController.RepeatModeChanged += OnRepeatModeChanged;
+            
 			listen();
 		}
 		
 		void IDisposable.Dispose()
 		{
             UninstallPreferences();
+            ServiceManager.PlayerEngine.DisconnectEvent(OnPlayerEvent);
+            ServiceManager.PlaybackController.ShuffleModeChanged -= OnShuffleModeChanged;
+            ServiceManager.PlaybackController.RepeatModeChanged -= OnRepeatModeChanged;
 			bansheeServerConn.Close();
+            lock (subscribers)
+            {
+                foreach (Subscriber subscriber in subscribers)
+                {
+                    subscriber.Close();
+                }
+                subscribers.Clear();
+            }
+            lock (sessions)
+            {
+                foreach (Socket session in sessions)
+                {
+                    session.Close();
+                }
+                sessions.Clear();
+            }
+            lock (syncLock)
+            {
+                foreach (SyncSnapshot snapshot in syncSnapshots.Values)
+                {
+                    File.Delete(snapshot.Path);
+                }
+                syncSnapshots.Clear();
+            }
 		}
 		
 		public void listen () 
@@ -102,7 +172,8 @@ namespace Banshee.AndroidRemote
             try
             {
                 Socket client = ((Socket)ar.AsyncState).EndAccept(ar);
-                client.BeginReceive(socketBuffer, 0, socketBuffer.Length, SocketFlags.None, OnSocketReceive,client);
+                Handshake handshake = new Handshake(client);
+                client.BeginReceive(handshake.Buffer, 0, handshake.Buffer.Length, SocketFlags.None, OnSocketReceive, handshake);
                 bansheeServerConn.BeginAccept(new AsyncCallback(OnIncomingConnection), bansheeServerConn);
             }
             catch (Exception)
@@ -110,274 +181,1193 @@ namespace Banshee.AndroidRemote
             }
         }
         
+        // The first bytes of a connection, read into a buffer of its own.
+        class Handshake
+        {
+            public readonly Socket Client;
+            public readonly byte[] Buffer = new byte[HandshakeSize];
+            public int Length;
+            
+            public Handshake (Socket client)
+            {
+                Client = client;
+            }
+            
+            public string Text
+            {
+                get { return Encoding.UTF8.GetString(Buffer, 0, Length); }
+            }
+            
+            // Reads on until the action is complete: up to its '/', plus the
+            // version of "frames/" and the "frames" of "subscribe/frames".
+            // A one-shot command is sent in one piece after its action, so
+            // whatever has arrived by then is all of it. Pieces that don't
+            // come within HandshakeTimeout aren't waited for.
+            public void ReadRest ()
+            {
+                Client.ReceiveTimeout = HandshakeTimeout;
+                try
+                {
+                    int read;
+                    while (NeedsMore(Text) && Length < Buffer.Length
+                        && (read = Client.Receive(Buffer, Length, Buffer.Length - Length, SocketFlags.None)) > 0)
+                    {
+                        Length += read;
+                    }
+                }
+                catch (SocketException)
+                {
+                }
+                Client.ReceiveTimeout = 0;
+            }
+            
+            static bool NeedsMore (string text)
+            {
+                if (text.IndexOf('/') < 0 || text == "frames/")
+                {
+                    return true;
+                }
+                return text.StartsWith("subscribe/") && text.Length < "subscribe/frames".Length && "subscribe/frames".StartsWith(text);
+            }
+        }
+        
         void OnSocketReceive (IAsyncResult ar) {
 			Socket client = null;
 			int bytes = 0;
 			try
             {
-                client = (Socket) ar.AsyncState;
+                Handshake handshake = (Handshake) ar.AsyncState;
+                client = handshake.Client;
                 bytes =  client.EndReceive(ar);
+                if (bytes <= 0)
+                {
+                    client.Close();
+                    return;
+                }
+                handshake.Length = bytes;
+                handshake.ReadRest();
                 
-                client.BeginReceive(socketBuffer, 0, socketBuffer.Length, SocketFlags.None, OnSocketReceive, client);
+                string text = handshake.Text;
+                if (text.StartsWith("frames/"))
+                {
+                    StartFramedSession(client, text);
+                    return;
+                }
+                if (text.StartsWith("session/"))
+                {
+                    StartSession(client);
+                    return;
+                }
+                if (text.StartsWith("subscribe/"))
+                {
+                    Subscribe(client, text.StartsWith("subscribe/frames"));
+                    return;
+                }
                 
+                byte[] messageByte = HandleCommand(text);
                 
-                string text = Encoding.UTF8.GetString(socketBuffer,0,bytes);
-                string sep = "/";
-                string[] remoteMessage = text.Split('/');
-                string action = remoteMessage[0];
-                string variable = remoteMessage[1];
-                if (action.Equals("play"))
+                if (messageByte != null)
                 {
-                    variable = variable.Replace('*','/');
+                    reply(client, messageByte);
                 }
-			
-                Banshee.Collection.TrackInfo currTrack = ServiceManager.PlayerEngine.CurrentTrack;
-                string replyText = "";
-                ushort currVol;
-                ushort volStep = 10;
-                bool replyReq = false;
-                string home = Environment.GetEnvironmentVariable("HOME");
-                string coverPath="";
-                string dbPath = home + "/.config/banshee-1/banshee.db";
-                if(currTrack != null && currTrack.ArtworkId != null){
-                    coverPath = home + "/.cache/media-art/" + currTrack.ArtworkId.ToString() +".jpg";
+				client.Close();
+			}
+			catch(Exception)
+            {
+			}
+        }
+        
+        // A session keeps the connection open and answers one request per
+        // line with "<id> <length>\n" followed by the reply body.
+        void StartSession (Socket client)
+        {
+            KeepAlive(client);
+            lock (sessions)
+            {
+                sessions.Add(client);
+            }
+            reply(client, Encoding.UTF8.GetBytes("session 1\n"));
+            Thread sessionThread = new Thread(delegate () { RunSession(client); });
+            sessionThread.IsBackground = true;
+            sessionThread.Start();
+        }
+        
+        void RunSession (Socket client)
+        {
+            try
+            {
+                using (NetworkStream stream = new NetworkStream(client, true))
+                {
+                    StreamReader reader = new StreamReader(stream, Encoding.UTF8);
+                    string line;
+                    while ((line = reader.ReadLine()) != null)
+                    {
+                        int space = line.IndexOf(' ');
+                        if (space < 0)
+                        {
+                            break;
+                        }
+                        byte[] body = null;
+                        try
+                        {
+                            body = HandleCommand(line.Substring(space + 1));
+                        }
+                        catch (Exception)
+                        {
+                        }
+                        if (body == null)
+                        {
+                            body = new byte[0];
+                        }
+                        byte[] header = Encoding.UTF8.GetBytes(line.Substring(0, space) + " " + body.Length + "\n");
+                        stream.Write(header, 0, header.Length);
+                        stream.Write(body, 0, body.Length);
+                    }
                 }
-                
-                switch (action)
+            }
+            catch (Exception)
+            {
+            }
+            finally
+            {
+                lock (sessions)
                 {
-                case "coverImage":
-                    byte[] coverImage = File.ReadAllBytes(coverPath);
-                    client.Send(coverImage);
-                    replyReq = true;
-                    break;
-                    
-                case "syncCount":
-                    int count = System.IO.File.ReadAllBytes(dbPath).Length;
-                    client.Send(System.Text.Encoding.UTF8.GetBytes(count.ToString()));
-                    replyReq=true;
-                    break;
-                    
-                case "sync":
-                    byte[] db = File.ReadAllBytes(dbPath);
-                    client.Send(db);
-                    replyReq = true;
-                    break;
-                    
-                case "coverExists":	
-                    replyText = coverExists(coverPath);
-                    replyReq = true;
-                    break;
-                    
-                case "playPause":			
-                    ServiceManager.PlayerEngine.TogglePlaying();
-                    replyReq = true;
-                    break;
-                    
-                case "next":				
-                    ServiceManager.PlaybackController.Next();
-                    replyReq = true;
-                    break;
-                    
-                case "prev":				
-                    ServiceManager.PlaybackController.Previous();
-                    replyReq = true;
-                    break;
-                    
-                case "play":
-                    var source = ServiceManager.SourceManager.MusicLibrary as DatabaseSource;
-                    source.FilterQuery="";
-                    if(source!=null)
+                    sessions.Remove(client);
+                }
+            }
+        }
+        
+        // Ends a session whose phone has gone quiet or disappeared, instead
+        // of leaving its thread blocked in a read forever.
+        static void KeepAlive (Socket client)
+        {
+            client.ReceiveTimeout = SessionIdleTimeout;
+            client.SetSocketOption(SocketOptionLevel.Socket, SocketOptionName.KeepAlive, true);
+        }
+        
+        // A framed session is a session that speaks RemoteFrame both ways.
+        // Requests carry the action and its parameters as two string fields;
+        // "all" is answered with typed fields, everything else with the
+        // reply of the text protocol as one bytes field.
+        void StartFramedSession (Socket client, string text)
+        {
+            byte version;
+            if (!Byte.TryParse(text.Substring("frames/".Length).Trim(), out version) || version < 1)
+            {
+                client.Close();
+                return;
+            }
+            KeepAlive(client);
+            lock (sessions)
+            {
+                sessions.Add(client);
+            }
+            reply(client, RemoteFrame.Handshake(Math.Min(version, RemoteFrame.Version)));
+            Thread sessionThread = new Thread(delegate () { RunFramedSession(client); });
+            sessionThread.IsBackground = true;
+            sessionThread.Start();
+        }
+        
+        void RunFramedSession (Socket client)
+        {
+            try
+            {
+                using (NetworkStream stream = new NetworkStream(client, true))
+                {
+                    RemoteFrame request;
+                    while ((request = RemoteFrame.Read(stream)) != null)
                     {
-                        var countSongs = source.Count;
-                        
-                        UnknownTrackInfo track = new UnknownTrackInfo(new SafeUri(variable));
-                        TrackInfo trackTemp = null;
-                        for(int i=0; i<countSongs; i++)
+                        RemoteFrame response = new RemoteFrame(request.Id);
+                        try
                         {
-                            trackTemp = source.TrackModel [i];
-                            if(trackTemp.TrackEqual(track))
+                            string action = request.GetString(0);
+                            if (action == "all")
+                            {
+                                AddAllInfo(response);
+                            }
+                            else if (action == "prefetch")
+                            {
+                                AddNextInfo(response);
+                            }
+                            else
                             {
-                                break;
+                                response.Add(HandleCommand(action, request.GetString(1)));
                             }
                         }
-                        if(trackTemp != null)
-                            ServiceManager.PlayerEngine.OpenPlay (trackTemp);
-                    }
-                    replyReq = true;
-                    break;
-                    
-                case "volumeDown":			
-                    currVol = ServiceManager.PlayerEngine.Volume;
-                    if (currVol < 10) 
-                    {
-                        ServiceManager.PlayerEngine.Volume = 0;	
+                        catch (Exception)
+                        {
+                            response = new RemoteFrame(request.Id).Add(new byte[0]);
+                        }
+                        byte[] frame = response.ToArray();
+                        stream.Write(frame, 0, frame.Length);
                     }
-                    else 
+                }
+            }
+            catch (Exception)
+            {
+            }
+            finally
+            {
+                lock (sessions)
+                {
+                    sessions.Remove(client);
+                }
+            }
+        }
+        
+        // Subscribers keep their connection open and get a
+        // "<kind> <length>\n<body>" frame pushed on every player change, or
+        // a RemoteFrame with the kind and the fields of the event if they
+        // subscribed with "subscribe/frames".
+        void Subscribe (Socket client, bool framed)
+        {
+            client.SendTimeout = 5000;
+            client.SetSocketOption(SocketOptionLevel.Socket, SocketOptionName.KeepAlive, true);
+            if (framed)
+            {
+                reply(client, RemoteFrame.Handshake(RemoteFrame.Version));
+                reply(client, AddAllInfo(new RemoteFrame(0).Add("state")).ToArray());
+            }
+            else
+            {
+                reply(client, Encoding.UTF8.GetBytes("subscribe 1\n"));
+                reply(client, EventFrame("state", AllInfo()));
+            }
+            Subscriber subscriber = new Subscriber(client, framed);
+            lock (subscribers)
+            {
+                subscribers.Add(subscriber);
+            }
+            Thread writer = new Thread(delegate () { subscriber.Run(RemoveSubscriber); });
+            writer.IsBackground = true;
+            writer.Start();
+        }
+        
+        void RemoveSubscriber (Subscriber subscriber)
+        {
+            subscriber.Close();
+            lock (subscribers)
+            {
+                subscribers.Remove(subscriber);
+            }
+        }
+        
+        // One subscriber's connection and the events waiting to be written
+        // to it. Events are written by the subscriber's own thread, so a
+        // slow phone never holds up the player thread that pushes them; one
+        // that falls MaxPending events behind is dropped instead.
+        class Subscriber
+        {
+            const int MaxPending = 16;
+            
+            public readonly Socket Client;
+            public readonly bool Framed;
+            Queue<byte[]> pending = new Queue<byte[]>();
+            bool closed = false;
+            
+            public Subscriber (Socket client, bool framed)
+            {
+                Client = client;
+                Framed = framed;
+            }
+            
+            // False if the subscriber is gone or can't keep up.
+            public bool Enqueue (byte[] frame)
+            {
+                lock (pending)
+                {
+                    if (closed || pending.Count >= MaxPending)
                     {
-                        ServiceManager.PlayerEngine.Volume = (ushort) (currVol - volStep);	
+                        return false;
                     }
-                    replyReq = true;
-                    break;
-                    
-                case "volumeUp":			
-                    currVol = ServiceManager.PlayerEngine.Volume;
-                    if (currVol > 90) 
+                    pending.Enqueue(frame);
+                    Monitor.Pulse(pending);
+                    return true;
+                }
+            }
+            
+            public void Close ()
+            {
+                lock (pending)
+                {
+                    closed = true;
+                    pending.Clear();
+                    Monitor.Pulse(pending);
+                }
+                try
+                {
+                    Client.Close();
+                }
+                catch (Exception)
+                {
+                }
+            }
+            
+            public void Run (Action<Subscriber> failed)
+            {
+                while (true)
+                {
+                    byte[] frame;
+                    lock (pending)
                     {
-                        ServiceManager.PlayerEngine.Volume = 100;
+                        while (pending.Count == 0 && !closed)
+                        {
+                            Monitor.Wait(pending);
+                        }
+                        if (closed)
+                        {
+                            return;
+                        }
+                        frame = pending.Dequeue();
                     }
-                    else 
+                    try
                     {
-                        ServiceManager.PlayerEngine.Volume = (ushort) (currVol + volStep);
+                        Client.Send(frame);
                     }
-                    replyReq = true;
-                    break;
-                    
-                case "mute":				
-					currVol = ServiceManager.PlayerEngine.Volume;
-					if (currVol > 0) 
+                    catch (Exception)
                     {
-						volume = currVol;
-						ServiceManager.PlayerEngine.Volume = 0;
+                        failed(this);
+                        return;
                     }
-                    else 
+                }
+            }
+        }
+        
+        void OnPlayerEvent (PlayerEventArgs args)
+        {
+            string kind = "state";
+            if (args.Event == PlayerEvent.StartOfStream || args.Event == PlayerEvent.TrackInfoUpdated)
+            {
+                kind = "track";
+            }
+            else if (args.Event == PlayerEvent.Seek)
+            {
+                kind = "seek";
+            }
+            Push(kind,
+                delegate () { return AllInfo(); },
+                delegate () { return AddAllInfo(new RemoteFrame(0).Add(kind)); });
+        }
+        
+        void OnShuffleModeChanged (object o, EventArgs<string> args)
+        {
+            Push("shuffle",
+                delegate () { return args.Value; },
+                delegate () { return new RemoteFrame(0).Add("shuffle").Add(args.Value); });
+        }
+        
+        void OnRepeatModeChanged (object o, EventArgs<PlaybackRepeatMode> args)
+        {
+            Push("repeat",
+                delegate () { return args.Value.ToString(); },
+                delegate () { return new RemoteFrame(0).Add("repeat").Add(args.Value.ToString()); });
+        }
+        
+        // Runs on the player's event thread, so it only queues the event for
+        // each subscriber's writer and never waits on a socket. Each payload
+        // is only built if someone subscribed in that form; one who joins
+        // meanwhile already got the whole state when subscribing.
+        void Push (string kind, Func<string> text, Func<RemoteFrame> framedEvent)
+        {
+            bool anyText = false, anyFramed = false;
+            lock (subscribers)
+            {
+                foreach (Subscriber subscriber in subscribers)
+                {
+                    if (subscriber.Framed)
                     {
-                        ServiceManager.PlayerEngine.Volume = volume;	
+                        anyFramed = true;
                     }
-                    replyReq = true;
-                    break;
-                case "status":						
-                    replyText = ServiceManager.PlayerEngine.CurrentState.ToString().ToLower();
-                    replyReq = true;
-                    break;
-                    
-                case "album":				
-                    replyText = currTrack.DisplayAlbumTitle;
-                    replyReq = true;
-                    break;
-                    
-                case "artist":				
-                    replyText = currTrack.DisplayArtistName;
-                    replyReq = true;
-                    break;
-                    
-                case "title":				
-                    replyText = currTrack.DisplayTrackTitle;
-                    replyReq = true;
-                    break;
-                case "trackCurrentTime":	
-                    replyText = (ServiceManager.PlayerEngine.Position/1000).ToString();
-                    replyReq = true;
-                    break;
-                    
-                case "trackTotalTime":		
-                    replyText = currTrack.Duration.ToString();
-                    replyReq = true;
-                    break;
-                    
-                case "seek":				
-                    ServiceManager.PlayerEngine.Position = UInt32.Parse(variable)*1000;
-                    replyReq = true;
-                    break;
-                    
-                case "shuffle":				 
-                    if (ServiceManager.PlaybackController.ShuffleMode.ToString() == "off") 
+                    else
                     {
-                        ServiceManager.PlaybackController.ShuffleMode = "song";
-                        replyText = "song";
+                        anyText = true;
                     }
-                    else if(ServiceManager.PlaybackController.ShuffleMode.ToString() == "song") 
+                }
+            }
+            if (!anyText && !anyFramed)
+            {
+                return;
+            }
+            byte[] frame = anyText ? EventFrame(kind, text()) : null;
+            byte[] binaryFrame = anyFramed ? framedEvent().ToArray() : null;
+            List<Subscriber> dropped = new List<Subscriber>();
+            lock (subscribers)
+            {
+                foreach (Subscriber subscriber in subscribers)
+                {
+                    byte[] payload = subscriber.Framed ? binaryFrame : frame;
+                    if (payload != null && !subscriber.Enqueue(payload))
                     {
-                        ServiceManager.PlaybackController.ShuffleMode = "artist";
-                        replyText = "Artist";
+                        dropped.Add(subscriber);
                     }
-                    else if(ServiceManager.PlaybackController.ShuffleMode.ToString() == "artist") 
+                }
+                foreach (Subscriber subscriber in dropped)
+                {
+                    subscribers.Remove(subscriber);
+                }
+            }
+            foreach (Subscriber subscriber in dropped)
+            {
+                subscriber.Close();
+            }
+        }
+        
+        byte[] EventFrame (string kind, string text)
+        {
+            byte[] body = Encoding.UTF8.GetBytes(text);
+            byte[] header = Encoding.UTF8.GetBytes(kind + " " + body.Length + "\n");
+            byte[] frame = new byte[header.Length + body.Length];
+            header.CopyTo(frame, 0);
+            body.CopyTo(frame, header.Length);
+            return frame;
+        }
+        
+        string CoverPath (TrackInfo track)
+        {
+            if (track == null || track.ArtworkId == null)
+            {
+                return "";
+            }
+            return Environment.GetEnvironmentVariable("HOME") + "/.cache/media-art/" + track.ArtworkId.ToString() + ".jpg";
+        }
+        
+        string AllInfo ()
+        {
+            string sep = "/";
+            TrackInfo currTrack = ServiceManager.PlayerEngine.CurrentTrack;
+            string info = ServiceManager.PlayerEngine.CurrentState.ToString().ToLower();
+            if (currTrack == null)
+            {
+                return info;
+            }
+            info += sep + currTrack.DisplayAlbumTitle.Replace('/','\\') + sep;
+            info += currTrack.DisplayArtistName.Replace('/','\\') + sep;
+            info += currTrack.DisplayTrackTitle.Replace('/','\\') + sep;
+            info += ((uint) (ServiceManager.PlayerEngine.Position/1000)).ToString() + sep;
+            info += ((uint) (currTrack.Duration.TotalSeconds)).ToString() + sep;
+            string coverPath = CoverPath(currTrack);
+            info += coverExists(coverPath) + sep;
+            info += TrackId(currTrack).Replace('/','\\') + sep;
+            info += CoverHash(coverPath);
+            return info;
+        }
+        
+        // The same as AllInfo, as typed fields that need no escaping:
+        // the state, then album, artist, title, position and duration in
+        // seconds, 1 if there is a cover, the track id and the hash of the
+        // cover, when a track is loaded.
+        RemoteFrame AddAllInfo (RemoteFrame frame)
+        {
+            TrackInfo currTrack = ServiceManager.PlayerEngine.CurrentTrack;
+            frame.Add(ServiceManager.PlayerEngine.CurrentState.ToString().ToLower());
+            if (currTrack == null)
+            {
+                return frame;
+            }
+            frame.Add(currTrack.DisplayAlbumTitle);
+            frame.Add(currTrack.DisplayArtistName);
+            frame.Add(currTrack.DisplayTrackTitle);
+            frame.Add((long) (ServiceManager.PlayerEngine.Position / 1000));
+            frame.Add((long) currTrack.Duration.TotalSeconds);
+            string coverPath = CoverPath(currTrack);
+            frame.Add(coverExists(coverPath) == "true" ? 1L : 0L);
+            frame.Add(TrackId(currTrack));
+            frame.Add(CoverHash(coverPath));
+            return frame;
+        }
+        
+        // The track that will play after the current one, as far as it can be
+        // known: nothing while shuffling, the same track when repeating it,
+        // otherwise the next one in the playing source, wrapping around when
+        // repeating all.
+        TrackInfo NextTrack ()
+        {
+            TrackInfo currTrack = ServiceManager.PlayerEngine.CurrentTrack;
+            if (currTrack == null || ServiceManager.PlaybackController.ShuffleMode.ToString() != "off")
+            {
+                return null;
+            }
+            if (ServiceManager.PlaybackController.RepeatMode == PlaybackRepeatMode.RepeatSingle)
+            {
+                return currTrack;
+            }
+            ITrackModelSource source = ServiceManager.PlaybackController.Source;
+            if (source == null || source.TrackModel == null)
+            {
+                return null;
+            }
+            int index = source.TrackModel.IndexOf(currTrack);
+            if (index < 0)
+            {
+                return null;
+            }
+            if (index + 1 < source.TrackModel.Count)
+            {
+                return source.TrackModel[index + 1];
+            }
+            if (ServiceManager.PlaybackController.RepeatMode == PlaybackRepeatMode.RepeatAll && source.TrackModel.Count > 0)
+            {
+                return source.TrackModel[0];
+            }
+            return null;
+        }
+        
+        // "prefetch": album, artist, title, duration, whether there is a
+        // cover, track id and cover hash of NextTrack, or nothing at all.
+        string NextInfo ()
+        {
+            string sep = "/";
+            TrackInfo next = NextTrack();
+            if (next == null)
+            {
+                return "";
+            }
+            string coverPath = CoverPath(next);
+            string info = next.DisplayAlbumTitle.Replace('/','\\') + sep;
+            info += next.DisplayArtistName.Replace('/','\\') + sep;
+            info += next.DisplayTrackTitle.Replace('/','\\') + sep;
+            info += ((uint) (next.Duration.TotalSeconds)).ToString() + sep;
+            info += coverExists(coverPath) + sep;
+            info += TrackId(next).Replace('/','\\') + sep;
+            info += CoverHash(coverPath);
+            return info;
+        }
+        
+        RemoteFrame AddNextInfo (RemoteFrame frame)
+        {
+            TrackInfo next = NextTrack();
+            if (next == null)
+            {
+                return frame;
+            }
+            string coverPath = CoverPath(next);
+            frame.Add(next.DisplayAlbumTitle);
+            frame.Add(next.DisplayArtistName);
+            frame.Add(next.DisplayTrackTitle);
+            frame.Add((long) next.Duration.TotalSeconds);
+            frame.Add(coverExists(coverPath) == "true" ? 1L : 0L);
+            frame.Add(TrackId(next));
+            frame.Add(CoverHash(coverPath));
+            return frame;
+        }
+        
+        // Library tracks are identified by their id, anything else by its uri.
+        string TrackId (TrackInfo track)
+        {
+            DatabaseTrackInfo dbTrack = track as DatabaseTrackInfo;
+            if (dbTrack != null)
+            {
+                return dbTrack.TrackId.ToString();
+            }
+            return track.Uri == null ? "" : track.Uri.AbsoluteUri;
+        }
+        
+        // The hex MD5 of the cover that coverImage would send, or "" if there
+        // is none. Files are only hashed again when their time or size changed.
+        string CoverHash (string coverPath)
+        {
+            if (coverPath == "")
+            {
+                return "";
+            }
+            FileInfo file = new FileInfo(coverPath);
+            if (!file.Exists || file.Length >= MaxCoverSize)
+            {
+                return "";
+            }
+            lock (coverHashes)
+            {
+                CoverHashEntry entry;
+                if (coverHashes.TryGetValue(coverPath, out entry) && entry.Modified == file.LastWriteTimeUtc && entry.Length == file.Length)
+                {
+                    return entry.Hash;
+                }
+                if (coverHashes.Count >= MaxCoverHashes)
+                {
+                    coverHashes.Clear();
+                }
+                entry = new CoverHashEntry();
+                entry.Modified = file.LastWriteTimeUtc;
+                entry.Length = file.Length;
+                using (MD5 md5 = MD5.Create())
+                {
+                    StringBuilder hex = new StringBuilder();
+                    foreach (byte b in md5.ComputeHash(File.ReadAllBytes(coverPath)))
                     {
-                        ServiceManager.PlaybackController.ShuffleMode = "album";
-                        replyText = "Album";
+                        hex.Append(b.ToString("x2"));
                     }
-                    else if(ServiceManager.PlaybackController.ShuffleMode.ToString() == "album") 
+                    entry.Hash = hex.ToString();
+                }
+                coverHashes[coverPath] = entry;
+                return entry.Hash;
+            }
+        }
+        
+        byte[] HandleCommand (string text)
+        {
+            string[] remoteMessage = text.Split('/');
+            return HandleCommand(remoteMessage[0], remoteMessage[1]);
+        }
+        
+        byte[] HandleCommand (string action, string variable)
+        {
+            if (action.Equals("play"))
+            {
+                variable = variable.Replace('*','/');
+            }
+			
+            Banshee.Collection.TrackInfo currTrack = ServiceManager.PlayerEngine.CurrentTrack;
+            string replyText = "";
+            byte[] replyBytes = null;
+            ushort currVol;
+            ushort volStep = 10;
+            bool replyReq = false;
+            string home = Environment.GetEnvironmentVariable("HOME");
+            string coverPath = CoverPath(currTrack);
+            string dbPath = home + "/.config/banshee-1/banshee.db";
+            
+            switch (action)
+            {
+            case "coverImage":
+                // "coverImage/<hash>" sends nothing if the cover still has that hash
+                if (String.IsNullOrEmpty(variable) || variable != CoverHash(coverPath))
+                {
+                    replyBytes = File.ReadAllBytes(coverPath);
+                }
+                else
+                {
+                    replyBytes = new byte[0];
+                }
+                replyReq = true;
+                break;
+                
+            case "prefetch":
+                replyText = NextInfo();
+                replyReq = true;
+                break;
+                
+            case "prefetchCover":
+                // the cover of NextTrack, if that is still the track asked for
+                TrackInfo next = NextTrack();
+                string nextCover = next == null ? "" : CoverPath(next);
+                if (next != null && TrackId(next).Replace('/','\\') == variable.Replace('/','\\') && coverExists(nextCover) == "true")
+                {
+                    replyBytes = File.ReadAllBytes(nextCover);
+                }
+                else
+                {
+                    replyBytes = new byte[0];
+                }
+                replyReq = true;
+                break;
+                
+            case "syncCount":
+                int count = System.IO.File.ReadAllBytes(dbPath).Length;
+                replyText = count.ToString();
+                replyReq=true;
+                break;
+                
+            case "sync":
+                replyBytes = File.ReadAllBytes(dbPath);
+                replyReq = true;
+                break;
+                
+            case "syncManifest":
+                replyText = SyncManifest(dbPath, variable);
+                replyReq = true;
+                break;
+                
+            case "syncChunk":
+                replyBytes = SyncChunk(variable);
+                replyReq = true;
+                break;
+                
+            case "syncDelta":
+                replyText = LibraryDelta(variable);
+                if (variable.EndsWith(",gzip"))
+                {
+                    replyBytes = Gzip(Encoding.UTF8.GetBytes(replyText));
+                }
+                replyReq = true;
+                break;
+                
+            case "coverExists":	
+                replyText = coverExists(coverPath);
+                replyReq = true;
+                break;
+                
+            case "playPause":			
+                ServiceManager.PlayerEngine.TogglePlaying();
+                replyReq = true;
+                break;
+                
+            case "next":				
+                ServiceManager.PlaybackController.Next();
+                replyReq = true;
+                break;
+                
+            case "prev":				
+                ServiceManager.PlaybackController.Previous();
+                replyReq = true;
+                break;
+                
+            case "play":
+                var source = ServiceManager.SourceManager.MusicLibrary as DatabaseSource;
+                source.FilterQuery="";
+                if(source!=null)
+                {
+                    var countSongs = source.Count;
+                    
+                    UnknownTrackInfo track = new UnknownTrackInfo(new SafeUri(variable));
+                    TrackInfo trackTemp = null;
+                    for(int i=0; i<countSongs; i++)
                     {
-                        ServiceManager.PlaybackController.ShuffleMode = "rating";
-                        replyText = "Rating";
+                        trackTemp = source.TrackModel [i];
+                        if(trackTemp.TrackEqual(track))
+                        {
+                            break;
+                        }
                     }
-                    else if(ServiceManager.PlaybackController.ShuffleMode.ToString() == "rating")
+                    if(trackTemp != null)
+                        ServiceManager.PlayerEngine.OpenPlay (trackTemp);
+                }
+                replyReq = true;
+                break;
+                
+            case "volumeDown":			
+                currVol = ServiceManager.PlayerEngine.Volume;
+                if (currVol < 10) 
+                {
+                    ServiceManager.PlayerEngine.Volume = 0;	
+                }
+                else 
+                {
+                    ServiceManager.PlayerEngine.Volume = (ushort) (currVol - volStep);	
+                }
+                replyReq = true;
+                break;
+                
+            case "volumeUp":			
+                currVol = ServiceManager.PlayerEngine.Volume;
+                if (currVol > 90) 
+                {
+                    ServiceManager.PlayerEngine.Volume = 100;
+                }
+                else 
+                {
+                    ServiceManager.PlayerEngine.Volume = (ushort) (currVol + volStep);
+                }
+                replyReq = true;
+                break;
+                
+            // "volume/<delta>" moves the volume by delta percent, clamped to
+            // 0-100, and answers with the resulting level.
+            case "volume":
+                int level = ServiceManager.PlayerEngine.Volume;
+                int delta;
+                if (Int32.TryParse(variable, out delta))
+                {
+                    level = Math.Max(0, Math.Min(100, level + delta));
+                    ServiceManager.PlayerEngine.Volume = (ushort) level;
+                }
+                replyText = level.ToString();
+                replyReq = true;
+                break;
+                
+            case "mute":				
+					currVol = ServiceManager.PlayerEngine.Volume;
+					if (currVol > 0) 
+                {
+						volume = currVol;
+						ServiceManager.PlayerEngine.Volume = 0;
+                }
+                else 
+                {
+                    ServiceManager.PlayerEngine.Volume = volume;	
+                }
+                replyReq = true;
+                break;
+            case "status":						
+                replyText = ServiceManager.PlayerEngine.CurrentState.ToString().ToLower();
+                replyReq = true;
+                break;
+                
+            case "album":				
+                replyText = currTrack.DisplayAlbumTitle;
+                replyReq = true;
+                break;
+                
+            case "artist":				
+                replyText = currTrack.DisplayArtistName;
+                replyReq = true;
+                break;
+                
+            case "title":				
+                replyText = currTrack.DisplayTrackTitle;
+                replyReq = true;
+                break;
+            case "trackCurrentTime":	
+                replyText = (ServiceManager.PlayerEngine.Position/1000).ToString();
+                replyReq = true;
+                break;
+                
+            case "trackTotalTime":		
+                replyText = currTrack.Duration.ToString();
+                replyReq = true;
+                break;
+                
+            case "seek":				
+                ServiceManager.PlayerEngine.Position = UInt32.Parse(variable)*1000;
+                replyReq = true;
+                break;
+                
+            case "shuffle":				 
+                if (ServiceManager.PlaybackController.ShuffleMode.ToString() == "off") 
+                {
+                    ServiceManager.PlaybackController.ShuffleMode = "song";
+                    replyText = "song";
+                }
+                else if(ServiceManager.PlaybackController.ShuffleMode.ToString() == "song") 
+                {
+                    ServiceManager.PlaybackController.ShuffleMode = "artist";
+                    replyText = "Artist";
+                }
+                else if(ServiceManager.PlaybackController.ShuffleMode.ToString() == "artist") 
+                {
+                    ServiceManager.PlaybackController.ShuffleMode = "album";
+                    replyText = "Album";
+                }
+                else if(ServiceManager.PlaybackController.ShuffleMode.ToString() == "album") 
+                {
+                    ServiceManager.PlaybackController.ShuffleMode = "rating";
+                    replyText = "Rating";
+                }
+                else if(ServiceManager.PlaybackController.ShuffleMode.ToString() == "rating")
+                {
+                    ServiceManager.PlaybackController.ShuffleMode = "score";
+                    replyText = "Score";
+                }
+                else
+                {
+                    ServiceManager.PlaybackController.ShuffleMode = "off";
+                    replyText = "off";
+                }
+                replyReq = true;
+                break;
+                
+            case "repeat":				 
+                if (ServiceManager.PlaybackController.RepeatMode == PlaybackRepeatMode.None)
+                {
+                    ServiceManager.PlaybackController.RepeatMode = PlaybackRepeatMode.RepeatAll;
+                    replyText = "all";
+                }
+                else if (ServiceManager.PlaybackController.RepeatMode == PlaybackRepeatMode.RepeatAll)
+                {
+                    ServiceManager.PlaybackController.RepeatMode = PlaybackRepeatMode.RepeatSingle;
+                    replyText = "single";
+                }
+                else 
+                {
+                    ServiceManager.PlaybackController.RepeatMode = PlaybackRepeatMode.None;
+                    replyText = "off";
+                }
+                replyReq = true;
+                break;
+                
+            case "all":
+                replyText = AllInfo();
+                replyReq = true;
+                break;
+                
+            case "test":
+                replyText = "";
+                replyReq = true;
+                break;
+                
+            default:
+                replyText = "";
+                replyReq = false;
+                break;
+            }
+            
+            if (!replyReq)
+            {
+                return null;
+            }
+            return replyBytes ?? System.Text.Encoding.UTF8.GetBytes(replyText);
+        }
+		
+		void reply (Socket remoteClient, byte[] reply) 
+        {
+			remoteClient.Send(reply);
+		}
+		
+        // Copies the database aside so every chunk of a download comes from
+        // the same file, and lists the size and CRC32 of each chunk. A client
+        // that offers encodings after the chunk size ("<size>,gzip") gets the
+        // chosen one on the fourth line, before the checksums. A client that
+        // resumes names its generation ("resume=<generation>") and keeps
+        // that copy for as long as the server still has it, however much the
+        // library has been written to since.
+        string SyncManifest (string dbPath, string variable)
+        {
+            string[] args = variable.Split(',');
+            int chunkSize = ClampChunkSize(Int32.Parse(args[0]));
+            string resume = null;
+            foreach (string arg in args)
+            {
+                if (arg.StartsWith("resume="))
+                {
+                    resume = arg.Substring("resume=".Length);
+                }
+            }
+            lock (syncLock)
+            {
+                SyncSnapshot current = resume == null ? null : FindSnapshot(resume);
+                if (current == null)
+                {
+                    current = TakeSnapshot(dbPath);
+                }
+                
+                StringBuilder manifest = new StringBuilder();
+                using (FileStream snapshot = File.OpenRead(current.Path))
+                {
+                    manifest.Append(current.Generation).Append('\n');
+                    manifest.Append(snapshot.Length).Append('\n');
+                    manifest.Append(chunkSize).Append('\n');
+                    if (args.Length > 1)
                     {
-                        ServiceManager.PlaybackController.ShuffleMode = "score";
-                        replyText = "Score";
+                        manifest.Append(Array.IndexOf(args, "gzip") > 0 ? "gzip" : "identity").Append('\n');
                     }
-                    else
+                    byte[] chunk = new byte[chunkSize];
+                    int read;
+                    while ((read = ReadChunk(snapshot, chunk)) > 0)
                     {
-                        ServiceManager.PlaybackController.ShuffleMode = "off";
-                        replyText = "off";
+                        manifest.Append(Crc32(chunk, read).ToString("x8")).Append('\n');
                     }
-                    replyReq = true;
-                    break;
-                    
-                case "repeat":				 
-                    if (ServiceManager.PlaybackController.RepeatMode == PlaybackRepeatMode.None)
+                }
+                return manifest.ToString();
+            }
+        }
+        
+        // "<generation>,<chunk size>,<index>[,gzip]", answered with an empty
+        // chunk once that snapshot has been dropped.
+        byte[] SyncChunk (string variable)
+        {
+            string[] args = variable.Split(',');
+            int chunkSize = ClampChunkSize(Int32.Parse(args[1]));
+            long index = Int64.Parse(args[2]);
+            lock (syncLock)
+            {
+                SyncSnapshot current = FindSnapshot(args[0]);
+                if (current == null)
+                {
+                    return new byte[0];
+                }
+                using (FileStream snapshot = File.OpenRead(current.Path))
+                {
+                    snapshot.Seek(index * chunkSize, SeekOrigin.Begin);
+                    byte[] chunk = new byte[chunkSize];
+                    Array.Resize(ref chunk, ReadChunk(snapshot, chunk));
+                    if (args.Length > 3 && args[3] == "gzip")
                     {
-                        ServiceManager.PlaybackController.RepeatMode = PlaybackRepeatMode.RepeatAll;
-                        replyText = "all";
+                        return Gzip(chunk);
                     }
-                    else if (ServiceManager.PlaybackController.RepeatMode == PlaybackRepeatMode.RepeatAll)
+                    return chunk;
+                }
+            }
+        }
+        
+        // Must be called holding syncLock.
+        SyncSnapshot FindSnapshot (string generation)
+        {
+            SyncSnapshot snapshot;
+            if (!syncSnapshots.TryGetValue(generation, out snapshot))
+            {
+                return null;
+            }
+            if (!File.Exists(snapshot.Path))
+            {
+                syncSnapshots.Remove(generation);
+                return null;
+            }
+            snapshot.LastUsed = DateTime.UtcNow;
+            return snapshot;
+        }
+        
+        // Copies the database inside a transaction on Banshee's own
+        // connection, so no write can land halfway through the copy, unless
+        // a copy of the database as it is now already exists. Only the
+        // MaxSyncSnapshots most recently used copies are kept, so a second
+        // client doesn't take away the copy another one is still fetching.
+        // Must be called holding syncLock.
+        SyncSnapshot TakeSnapshot (string dbPath)
+        {
+            HyenaSqliteConnection conn = ServiceManager.DbConnection;
+            conn.BeginTransaction();
+            try
+            {
+                // a deferred transaction only takes its lock on the first read
+                conn.Query<long>("SELECT COUNT(*) FROM sqlite_master");
+                FileInfo db = new FileInfo(dbPath);
+                string generation = db.LastWriteTimeUtc.Ticks.ToString() + "-" + db.Length.ToString();
+                SyncSnapshot snapshot = FindSnapshot(generation);
+                if (snapshot != null)
+                {
+                    return snapshot;
+                }
+                snapshot = new SyncSnapshot();
+                snapshot.Generation = generation;
+                snapshot.Path = Path.Combine(Path.GetTempPath(), "banshee-androidremote-sync-" + generation + ".db");
+                snapshot.LastUsed = DateTime.UtcNow;
+                File.Copy(dbPath, snapshot.Path, true);
+                syncSnapshots[generation] = snapshot;
+                DropOldSnapshots();
+                return snapshot;
+            }
+            finally
+            {
+                conn.CommitTransaction();
+            }
+        }
+        
+        void DropOldSnapshots ()
+        {
+            while (syncSnapshots.Count > MaxSyncSnapshots)
+            {
+                SyncSnapshot oldest = null;
+                foreach (SyncSnapshot snapshot in syncSnapshots.Values)
+                {
+                    if (oldest == null || snapshot.LastUsed < oldest.LastUsed)
                     {
-                        ServiceManager.PlaybackController.RepeatMode = PlaybackRepeatMode.RepeatSingle;
-                        replyText = "single";
+                        oldest = snapshot;
                     }
-                    else 
+                }
+                syncSnapshots.Remove(oldest.Generation);
+                File.Delete(oldest.Path);
+            }
+        }
+        
+        static byte[] Gzip (byte[] data)
+        {
+            using (MemoryStream compressed = new MemoryStream())
+            {
+                using (GZipStream gzip = new GZipStream(compressed, CompressionMode.Compress))
+                {
+                    gzip.Write(data, 0, data.Length);
+                }
+                return compressed.ToArray();
+            }
+        }
+        
+        static int ClampChunkSize (int chunkSize)
+        {
+            return Math.Max(4096, Math.Min(chunkSize, 4 * 1024 * 1024));
+        }
+        
+        static int ReadChunk (Stream stream, byte[] chunk)
+        {
+            int total = 0;
+            int read;
+            while (total < chunk.Length && (read = stream.Read(chunk, total, chunk.Length - total)) > 0)
+            {
+                total += read;
+            }
+            return total;
+        }
+        
+        static uint Crc32 (byte[] data, int length)
+        {
+            if (crcTable == null)
+            {
+                uint[] table = new uint[256];
+                for (uint n = 0; n < 256; n++)
+                {
+                    uint c = n;
+                    for (int k = 0; k < 8; k++)
                     {
-                        ServiceManager.PlaybackController.RepeatMode = PlaybackRepeatMode.None;
-                        replyText = "off";
+                        c = (c & 1) != 0 ? 0xEDB88320 ^ (c >> 1) : c >> 1;
                     }
-                    replyReq = true;
-                    break;
-                    
-                case "all":
-                    replyText = ServiceManager.PlayerEngine.CurrentState.ToString().ToLower() + sep;
-                    replyText += currTrack.DisplayAlbumTitle.Replace('/','\\') + sep;
-                    replyText += currTrack.DisplayArtistName.Replace('/','\\') + sep;
-                    replyText += currTrack.DisplayTrackTitle.Replace('/','\\') + sep;
-                    replyText += ((uint) (ServiceManager.PlayerEngine.Position/1000)).ToString() + sep;
-                    replyText += ((uint) (currTrack.Duration.TotalSeconds)).ToString() + sep;
-                    replyText += coverExists(coverPath);
-                    replyReq = true;
-                    break;
-                    
-                case "test":
-                    replyText = "";
-                    replyReq = true;
-                    break;
-                    
-                default:
-                    replyText = "";
-                    replyReq = false;
-                    break;
+                    table[n] = c;
                 }
-                
-                byte[] messageByte = System.Text.Encoding.UTF8.GetBytes(replyText);
-                
-                if (replyReq)
+                crcTable = table;
+            }
+            uint crc = 0xFFFFFFFF;
+            for (int i = 0; i < length; i++)
+            {
+                crc = crcTable[(crc ^ data[i]) & 0xFF] ^ (crc >> 8);
+            }
+            return crc ^ 0xFFFFFFFF;
+        }
+        
+        // Rows added, changed or removed past the client's watermarks, one
+        // "table" header per table followed by "+" rows and a final "end".
+        string LibraryDelta (string watermarks)
+        {
+            string[] marks = watermarks.Split(',');
+            StringBuilder delta = new StringBuilder();
+            AppendRows(delta, "CoreTracks", "DateUpdatedStamp", Int64.Parse(marks[0]));
+            AppendRows(delta, "CoreRemovedTracks", "DateRemovedStamp", Int64.Parse(marks[1]));
+            // albums and artists have no modification stamp and are small, so
+            // they are always sent whole; their watermarks are ignored
+            AppendRows(delta, "CoreAlbums", null, 0);
+            AppendRows(delta, "CoreArtists", null, 0);
+            delta.Append("end\n");
+            return delta.ToString();
+        }
+        
+        // Rows stamped at or after the watermark, since stamps only have a
+        // resolution of one second; the client's upsert makes the overlap
+        // harmless. Every row when there is no watermark column.
+        void AppendRows (StringBuilder delta, string table, string watermarkColumn, long watermark)
+        {
+            List<string> columns = new List<string>();
+            using (var reader = ServiceManager.DbConnection.Query(String.Format("PRAGMA table_info({0})", table)))
+            {
+                while (reader.Read())
                 {
-                    reply(client, messageByte);
+                    columns.Add(reader[1].ToString());
                 }
-				client.Close();
-			}
-			catch(Exception)
+            }
+            delta.Append("table\t").Append(table).Append('\t').Append(String.Join("\t", columns.ToArray())).Append('\n');
+            
+            string query = String.Format("SELECT {0} FROM {1}", String.Join(",", columns.ToArray()), table);
+            if (watermarkColumn != null)
             {
-			}
+                query += String.Format(" WHERE {0} >= ?", watermarkColumn);
+            }
+            using (var reader = watermarkColumn == null
+                ? ServiceManager.DbConnection.Query(query)
+                : ServiceManager.DbConnection.Query(query, watermark))
+            {
+                while (reader.Read())
+                {
+                    delta.Append('+');
+                    for (int i = 0; i < columns.Count; i++)
+                    {
+                        delta.Append('\t').Append(EscapeValue(reader[i]));
+                    }
+                    delta.Append('\n');
+                }
+            }
         }
-		
-		void reply (Socket remoteClient, byte[] reply) 
+        
+        string EscapeValue (object value)
         {
-			remoteClient.Send(reply);
-		}
+            if (value == null || value is DBNull || value is byte[])
+            {
+                return "\\N";
+            }
+            return Convert.ToString(value, CultureInfo.InvariantCulture)
+                .Replace("\\", "\\\\").Replace("\t", "\\t").Replace("\n", "\\n").Replace("\r", "\\r");
+        }
 		
 		string coverExists(string coverPath)
         {
 			string retVal = "false";
             if (System.IO.File.Exists(coverPath))
             {
-				if (System.IO.File.ReadAllBytes(coverPath).Length < 110000)
+				if (new FileInfo(coverPath).Length < MaxCoverSize)
                 {
 					retVal = "true";
 				}
@@ -0,0 +1,255 @@
+//
+// RemoteFrame.cs
+//
+// Authors:
+//   Nikitas Stamatopoulos / Kristopher Dick
+//
+// Copyright (C) 2013 Nikitas Stamatopoulos
+//
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+
+using System;
+using System.Collections.Generic;
+using System.IO;
+using System.Text;
+
+namespace Banshee.AndroidRemote
+{
+    // One message of the binary protocol. On the wire a frame is the
+    // big-endian int32 length of the rest, the int32 id of the request it
+    // belongs to (0 for pushed events) and a list of typed fields: 's' is
+    // an int32 length and UTF-8 text, 'i' a big-endian int64 and 'b' an
+    // int32 length and raw bytes.
+    //
+    // A client asks for it with "frames/<version>" and the server answers
+    // with Magic and the version it picked, never newer than the client's.
+    public class RemoteFrame
+    {
+        public const string Magic = "BRP";
+        public const byte Version = 1;
+        public const int MaxLength = 64 * 1024 * 1024;
+
+        int id;
+        List<object> fields = new List<object>();
+
+        public RemoteFrame (int id)
+        {
+            this.id = id;
+        }
+
+        public int Id
+        {
+            get { return id; }
+        }
+
+        public IList<object> Fields
+        {
+            get { return fields; }
+        }
+
+        public RemoteFrame Add (string value)
+        {
+            fields.Add(value ?? "");
+            return this;
+        }
+
+        public RemoteFrame Add (long value)
+        {
+            fields.Add(value);
+            return this;
+        }
+
+        public RemoteFrame Add (byte[] value)
+        {
+            fields.Add(value ?? new byte[0]);
+            return this;
+        }
+
+        public string GetString (int index)
+        {
+            if (index >= fields.Count)
+            {
+                return "";
+            }
+            object field = fields[index];
+            if (field is byte[])
+            {
+                return Encoding.UTF8.GetString((byte[]) field);
+            }
+            return field.ToString();
+        }
+
+        public static byte[] Handshake (byte version)
+        {
+            byte[] handshake = new byte[Magic.Length + 1];
+            Encoding.ASCII.GetBytes(Magic).CopyTo(handshake, 0);
+            handshake[Magic.Length] = version;
+            return handshake;
+        }
+
+        public byte[] ToArray ()
+        {
+            using (MemoryStream body = new MemoryStream())
+            {
+                WriteInt32(body, 0);
+                WriteInt32(body, id);
+                foreach (object field in fields)
+                {
+                    if (field is string)
+                    {
+                        body.WriteByte((byte) 's');
+                        WriteBytes(body, Encoding.UTF8.GetBytes((string) field));
+                    }
+                    else if (field is long)
+                    {
+                        body.WriteByte((byte) 'i');
+                        WriteInt64(body, (long) field);
+                    }
+                    else
+                    {
+                        body.WriteByte((byte) 'b');
+                        WriteBytes(body, (byte[]) field);
+                    }
+                }
+                byte[] frame = body.ToArray();
+                int length = frame.Length - 4;
+                frame[0] = (byte) ((length >> 24) & 0xff);
+                frame[1] = (byte) ((length >> 16) & 0xff);
+                frame[2] = (byte) ((length >> 8) & 0xff);
+                frame[3] = (byte) (length & 0xff);
+                return frame;
+            }
+        }
+
+        // Reads the next frame, or returns null if the stream ended cleanly
+        // before one started.
+        public static RemoteFrame Read (Stream stream)
+        {
+            byte[] header = new byte[4];
+            if (!ReadFully(stream, header, true))
+            {
+                return null;
+            }
+            int length = ToInt32(header, 0);
+            if (length < 4 || length > MaxLength)
+            {
+                throw new IOException("Bad frame length " + length);
+            }
+            byte[] body = new byte[length];
+            ReadFully(stream, body, false);
+
+            RemoteFrame frame = new RemoteFrame(ToInt32(body, 0));
+            int offset = 4;
+            while (offset < length)
+            {
+                byte tag = body[offset++];
+                if (tag == 'i')
+                {
+                    CheckLength(offset, 8, length);
+                    long value = 0;
+                    for (int i = 0; i < 8; i++)
+                    {
+                        value = (value << 8) | body[offset + i];
+                    }
+                    frame.Add(value);
+                    offset += 8;
+                    continue;
+                }
+                CheckLength(offset, 4, length);
+                int size = ToInt32(body, offset);
+                offset += 4;
+                CheckLength(offset, size, length);
+                if (tag == 's')
+                {
+                    frame.Add(Encoding.UTF8.GetString(body, offset, size));
+                }
+                else if (tag == 'b')
+                {
+                    byte[] value = new byte[size];
+                    Array.Copy(body, offset, value, 0, size);
+                    frame.Add(value);
+                }
+                else
+                {
+                    throw new IOException("Unknown field type " + tag);
+                }
+                offset += size;
+            }
+            return frame;
+        }
+
+        static void CheckLength (int offset, int size, int length)
+        {
+            if (size < 0 || offset + size > length)
+            {
+                throw new IOException("Truncated frame field");
+            }
+        }
+
+        static bool ReadFully (Stream stream, byte[] buffer, bool eofAllowed)
+        {
+            int offset = 0;
+            while (offset < buffer.Length)
+            {
+                int read = stream.Read(buffer, offset, buffer.Length - offset);
+                if (read <= 0)
+                {
+                    if (offset == 0 && eofAllowed)
+                    {
+                        return false;
+                    }
+                    throw new EndOfStreamException();
+                }
+                offset += read;
+            }
+            return true;
+        }
+
+        static int ToInt32 (byte[] buffer, int offset)
+        {
+            return (buffer[offset] << 24) | (buffer[offset + 1] << 16) | (buffer[offset + 2] << 8) | buffer[offset + 3];
+        }
+
+        // Every byte is masked before the cast, the assembly is built with
+        // overflow checking.
+        static void WriteInt32 (Stream stream, int value)
+        {
+            stream.WriteByte((byte) ((value >> 24) & 0xff));
+            stream.WriteByte((byte) ((value >> 16) & 0xff));
+            stream.WriteByte((byte) ((value >> 8) & 0xff));
+            stream.WriteByte((byte) (value & 0xff));
+        }
+
+        static void WriteInt64 (Stream stream, long value)
+        {
+            for (int shift = 56; shift >= 0; shift -= 8)
+            {
+                stream.WriteByte((byte) ((value >> shift) & 0xff));
+            }
+        }
+
+        static void WriteBytes (Stream stream, byte[] value)
+        {
+            WriteInt32(stream, value.Length);
+            stream.Write(value, 0, value.Length);
+        }
+    }
+}